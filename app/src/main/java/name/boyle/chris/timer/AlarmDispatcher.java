@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Handles alarms off the main thread: for each due timer, post its
+ * notification, save it and re-arm, then let {@link TimerActivity} know.
+ * A {@link WakeLocks} hold is taken as soon as the alarm arrives and kept
+ * until all of that is done, rather than for a fixed time.
+ * <p>
+ * The timers are cached and shared with the UI, so only reading them from
+ * the database happens here; the notifying and resetting, which change
+ * their fields, is handed to the main thread, as {@link Timer} requires.
+ */
+public class AlarmDispatcher
+{
+	static final String EXTRA_IDS = "name.boyle.chris.timer.EXTRA_IDS";
+
+	private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	/** Run some other alarm bookkeeping (e.g. restoring after boot) in order with dispatches. */
+	static void execute(Runnable r)
+	{
+		executor.execute(r);
+	}
+
+	/**
+	 * Fire every timer that is due, in the background.
+	 * @param result from {@link BroadcastReceiver#goAsync()}; finished once everything is saved
+	 */
+	static void dispatchDue(Context context, final BroadcastReceiver.PendingResult result)
+	{
+		final Context app = context.getApplicationContext();
+		// Taken now, not when the executor gets to it, so the CPU can't sleep in between
+		final WakeLocks.Hold hold = WakeLocks.get(app).acquire();
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					long[] ids = AlarmScheduler.get(app).takeDue(Clock.get().now());
+					hold.setTimers(ids);
+					fire(app, ids, hold);
+				} finally {
+					hold.release();
+					result.finish();
+				}
+			}
+		});
+	}
+
+	private static void fire(final Context context, long[] ids, WakeLocks.Hold hold)
+	{
+		final TimerRepository repo = TimerRepository.get(context);
+		final ArrayList<Timer> timers = new ArrayList<Timer>(ids.length);
+		for (long id : ids) {
+			Timer t = repo.get(id);
+			if (t == null) {
+				AlarmScheduler.get(context).cancel(id);
+				continue;
+			}
+			timers.add(t);
+		}
+		runOnMainThread(new Runnable() {
+			public void run() {
+				long now = Clock.get().now();
+				for (Timer t : timers) {
+					long scheduled = t.nextMillis;
+					boolean enabled = t.enabled;
+					if (enabled) repo.record(FireHistory.fired(t.id, scheduled, now, t.isNight()));
+					long start = Metrics.start();
+					boolean changed = t.notify(context);
+					Metrics.end(Metrics.NOTIFY, start);
+					if (changed) repo.save(t);
+					if (enabled && t.nextMillis != scheduled) repo.record(FireHistory.reset(t.id, now));
+				}
+			}
+		});
+		hold.charge();  // written with everything else, while the CPU is held
+		repo.flush();
+		Intent i = new Intent(TimerActivity.ACTION_FIRED);
+		i.putExtra(EXTRA_IDS, ids);
+		context.sendBroadcast(i);
+		Timer.requeryLocale(context);
+	}
+
+	/** Run {@code r} on the main thread and wait for it; nothing is locked meanwhile. */
+	private static void runOnMainThread(Runnable r)
+	{
+		FutureTask<Void> task = new FutureTask<Void>(r, null);
+		new Handler(Looper.getMainLooper()).post(task);
+		try {
+			task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+}
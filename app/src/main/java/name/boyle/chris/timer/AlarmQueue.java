@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * The next fire time of every enabled timer, earliest first, and which
+ * wakeups should be set to serve them: one inexact, and one exact for
+ * timers in {@link Timer#exact} mode. {@link AlarmScheduler} backs this
+ * with {@code AlarmManager}; a simulation can supply its own
+ * {@link Wakeups}.
+ */
+public class AlarmQueue
+{
+	/** Something that can wake us at a given time, like {@code AlarmManager}. */
+	public interface Wakeups
+	{
+		void set(long due, boolean exact, int timers);
+		void cancel(boolean exact);
+	}
+
+	private static class Entry implements Comparable<Entry>
+	{
+		final long id, next;
+		final NagPolicy nags;
+		final boolean exact;
+		/** 0 while waiting for the alarm itself, then which reminder is next. */
+		int nag;
+		long due;
+
+		Entry(long id, long next, NagPolicy nags, int nag, boolean exact)
+		{
+			this.id = id;
+			this.next = next;
+			this.nags = nags;
+			this.nag = nag;
+			this.due = nags.at(next, nag);
+			this.exact = exact;
+		}
+
+		public int compareTo(Entry other)
+		{
+			return due < other.due ? -1 : (due == other.due ? 0 : 1);
+		}
+	}
+
+	private final Wakeups wakeups;
+	private final PriorityQueue<Entry> queue = new PriorityQueue<Entry>(),
+			exactQueue = new PriorityQueue<Entry>();
+	private final HashMap<Long, Entry> entries = new HashMap<Long, Entry>();
+	/**
+	 * The alarm time each timer last fired for, so that one not yet fired
+	 * can't be skipped: as taken by {@link #takeDue(long)}, or as the fire
+	 * history says for a new process (see {@link #markDelivered(long, long)}).
+	 */
+	private final HashMap<Long, Long> delivered = new HashMap<Long, Long>();
+	private long armedFor = -1, exactArmedFor = -1;
+
+	public AlarmQueue(Wakeups wakeups)
+	{
+		this.wakeups = wakeups;
+	}
+
+	/**
+	 * Forget every timer, and which wakeups are set. Which alarms have
+	 * already fired is kept, as the fire history may not have been written
+	 * yet.
+	 */
+	public void clear()
+	{
+		queue.clear();
+		exactQueue.clear();
+		entries.clear();
+		armedFor = exactArmedFor = -1;
+	}
+
+	public int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * Add or replace a timer whose alarm is due at {@code next}. An alarm
+	 * that hasn't fired yet is always due, straight away if it is overdue.
+	 * Once it has fired, the timer is due at its next reminder after
+	 * {@code now}, or not at all if its {@link NagPolicy} has stopped by
+	 * then. Call {@link #arm()} afterwards.
+	 */
+	public void put(long id, long next, NagPolicy nags, boolean exact, long now)
+	{
+		remove(id);
+		Long fired = delivered.get(id);
+		int nag = fired != null && fired == next ? nags.firstFrom(next, now) : 0;
+		if (nag < 0) return;
+		Entry e = new Entry(id, next, nags, nag, exact);
+		entries.put(id, e);
+		queueFor(e).add(e);
+	}
+
+	/**
+	 * Record that timer {@code id}'s alarm at {@code next} has already
+	 * fired, e.g. in an earlier process, so that
+	 * {@link #put(long, long, NagPolicy, boolean, long)} only queues its
+	 * reminders.
+	 */
+	public void markDelivered(long id, long next)
+	{
+		delivered.put(id, next);
+	}
+
+	/**
+	 * Add a timer whose alarm is due again even if it has already fired,
+	 * e.g. after boot, when its notification is gone: if it is overdue, it
+	 * is due straight away. Call {@link #arm()} afterwards.
+	 */
+	public void load(long id, long next, NagPolicy nags, boolean exact)
+	{
+		delivered.remove(id);
+		put(id, next, nags, exact, Long.MIN_VALUE);
+	}
+
+	/** Call {@link #arm()} afterwards. */
+	public void remove(long id)
+	{
+		Entry e = entries.remove(id);
+		if (e != null) queueFor(e).remove(e);
+	}
+
+	/**
+	 * Remove every timer that is due at {@code now} and return their ids.
+	 * Each is put back for its next reminder, if its {@link NagPolicy} has
+	 * one; a timer that resets will replace that via
+	 * {@link #put(long, long, NagPolicy, boolean, long)}. How late each one
+	 * is gets recorded in {@link Metrics}. Re-arms.
+	 */
+	public long[] takeDue(long now)
+	{
+		ArrayList<Entry> due = new ArrayList<Entry>();
+		takeDue(queue, now, due);
+		takeDue(exactQueue, now, due);
+		long[] ids = new long[due.size()];
+		for (int i = 0; i < ids.length; i++) {
+			Entry e = due.get(i);
+			ids[i] = e.id;
+			if (e.nag == 0) delivered.put(e.id, e.next);
+			Metrics.record(e.exact ? Metrics.DRIFT_EXACT : Metrics.DRIFT_INEXACT, (now - e.due) * 1000);
+			e.nag = e.nags.firstFrom(e.next, now + 1);
+			if (e.nag < 0) {
+				entries.remove(e.id);  // stays late, but quietly, until reset
+				continue;
+			}
+			e.due = e.nags.at(e.next, e.nag);
+			queueFor(e).add(e);
+		}
+		armedFor = exactArmedFor = -1;  // one of the wakeups we were holding has just gone off
+		arm();
+		return ids;
+	}
+
+	private static void takeDue(PriorityQueue<Entry> q, long now, ArrayList<Entry> due)
+	{
+		while (! q.isEmpty() && q.peek().due <= now) {
+			due.add(q.poll());
+		}
+	}
+
+	private PriorityQueue<Entry> queueFor(Entry e)
+	{
+		return e.exact ? exactQueue : queue;
+	}
+
+	/** Make sure each wakeup is set for the earliest timer of its kind, or cancelled. */
+	public void arm()
+	{
+		armedFor = arm(queue, armedFor, false);
+		exactArmedFor = arm(exactQueue, exactArmedFor, true);
+	}
+
+	/** @return the time the wakeup is now set for, or -1 */
+	private long arm(PriorityQueue<Entry> q, long armedFor, boolean exact)
+	{
+		if (q.isEmpty()) {
+			wakeups.cancel(exact);
+			return -1;
+		}
+		long due = q.peek().due;
+		if (due != armedFor) wakeups.set(due, exact, q.size());
+		return due;
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.Log;
+
+/**
+ * Keeps the next fire time of every enabled timer in an {@link AlarmQueue},
+ * and holds a single {@code AlarmManager} wakeup for whichever is earliest.
+ * When that goes off, {@link #takeDue(long)} hands back every timer that is
+ * due so they can all be handled by the same wakeup.
+ * <p>
+ * Timers in {@link Timer#exact} mode have a wakeup of their own, set with
+ * {@code setExact}, so the system can't defer them to batch with other
+ * alarms; everything else stays inexact.
+ */
+public class AlarmScheduler
+{
+	/** Data of the single alarm; timer-specific alarms carry "timer:id". */
+	static final Uri ALARM_DATA = Uri.parse("timer:due");
+	/** Data of the exact alarm, which must differ for it to be a separate PendingIntent. */
+	static final Uri EXACT_DATA = Uri.parse("timer:exact");
+
+	private static AlarmScheduler instance;
+
+	private final Context context;
+	private final AlarmQueue queue;
+	private PendingIntent inexactWakeup, exactWakeup;
+	private boolean loaded = false;
+
+	private AlarmScheduler(Context context)
+	{
+		this.context = context;
+		queue = new AlarmQueue(new AlarmQueue.Wakeups() {
+			public void set(long due, boolean exact, int timers) {
+				AlarmManager alarms = alarms();
+				Log.d(TimerActivity.TAG, "Next " + (exact ? "exact" : "inexact") + " wakeup at " + due
+						+ " for " + timers + " timers");
+				if (exact) {
+					alarms.setExact(AlarmManager.RTC_WAKEUP, due, wakeup(true));
+				} else {
+					alarms.set(AlarmManager.RTC_WAKEUP, due, wakeup(false));
+				}
+			}
+			public void cancel(boolean exact) {
+				alarms().cancel(wakeup(exact));
+			}
+		});
+	}
+
+	public static synchronized AlarmScheduler get(Context context)
+	{
+		if (instance == null) instance = new AlarmScheduler(context.getApplicationContext());
+		return instance;
+	}
+
+	private AlarmManager alarms()
+	{
+		return (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+	}
+
+	/** The same two PendingIntents serve every timer, so they are only looked up once. */
+	private PendingIntent wakeup(boolean exact)
+	{
+		if (exact) {
+			if (exactWakeup == null) exactWakeup = PendingIntent.getBroadcast(context, 0,
+					new Intent(Receiver.ACTION_ALARM, EXACT_DATA), 0);
+			return exactWakeup;
+		} else {
+			if (inexactWakeup == null) inexactWakeup = PendingIntent.getBroadcast(context, 0,
+					new Intent(Receiver.ACTION_ALARM, ALARM_DATA), 0);
+			return inexactWakeup;
+		}
+	}
+
+	/**
+	 * Rebuild the queue from the database and re-arm the wakeup.
+	 * @param fireOverdue whether overdue timers should fire straight away
+	 * even if they already have, rather than on their next reminder, if
+	 * any: after boot their notifications are gone. An overdue alarm that
+	 * hasn't fired, as far as this process or the fire history knows,
+	 * fires either way.
+	 * @return the number of enabled timers
+	 */
+	public synchronized int rebuild(boolean fireOverdue)
+	{
+		queue.clear();
+		long now = Clock.get().now();
+		TimerRepository repo = TimerRepository.get(context);
+		repo.flush();
+		Cursor c = repo.db().getEnabledSchedules();
+		while (c.moveToNext()) {
+			long id = c.getLong(TimerDB.DUE_COL_ID), next = c.getLong(TimerDB.DUE_COL_NEXT);
+			NagPolicy nags = NagPolicy.parse(c.getString(TimerDB.DUE_COL_NAGS));
+			boolean exact = c.getInt(TimerDB.DUE_COL_EXACT) > 0;
+			if (fireOverdue) {
+				queue.load(id, next, nags, exact);
+			} else {
+				// A new process only knows what has fired from the history
+				if (c.getInt(TimerDB.DUE_COL_FIRED) > 0) queue.markDelivered(id, next);
+				queue.put(id, next, nags, exact, now);
+			}
+		}
+		c.close();
+		loaded = true;
+		queue.arm();
+		return queue.size();
+	}
+
+	/**
+	 * Fill the queue on first use. Overdue alarms that the fire history
+	 * doesn't have are due straight away: if the process was started by our
+	 * wakeup, skipping them would lose that alarm. Those it has only get
+	 * their reminders, so a new process doesn't fire them again.
+	 */
+	private void load()
+	{
+		if (! loaded) rebuild(false);
+	}
+
+	/** Call whenever a timer's enabled state, next time or reminders change. */
+	public synchronized void update(Timer t)
+	{
+		load();
+		if (t.enabled) {
+			queue.put(t.id, t.nextMillis, t.nagPolicy, t.exact, Clock.get().now());
+		} else {
+			queue.remove(t.id);
+		}
+		queue.arm();
+	}
+
+	public synchronized void cancel(long id)
+	{
+		load();
+		queue.remove(id);
+		queue.arm();
+	}
+
+	/** See {@link AlarmQueue#takeDue(long)}. */
+	public synchronized long[] takeDue(long now)
+	{
+		load();
+		return queue.takeDue(now);
+	}
+
+	/** Cancel a repeating alarm left behind by a version that set one per timer. */
+	static void cancelLegacy(Context context, Uri data)
+	{
+		AlarmManager alarms = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+		alarms.cancel(PendingIntent.getBroadcast(context, 0, new Intent(Receiver.ACTION_ALARM, data), 0));
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+/**
+ * Where the scheduling code gets the time from, so that it can be run
+ * against a virtual clock (see the benchmark module's simulator) rather
+ * than only in real time.
+ */
+public abstract class Clock
+{
+	public static final Clock SYSTEM = new Clock() {
+		@Override
+		public long now() { return System.currentTimeMillis(); }
+	};
+
+	private static volatile Clock current = SYSTEM;
+
+	/** @return the current time in milliseconds since the epoch */
+	public abstract long now();
+
+	public static Clock get()
+	{
+		return current;
+	}
+
+	/** Replace the clock for the whole process; for simulations only. */
+	public static void set(Clock clock)
+	{
+		current = clock;
+	}
+}
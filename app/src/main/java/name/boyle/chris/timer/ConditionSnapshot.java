@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * A memory-mapped copy of just the fields Locale's condition query needs
+ * (next time, enabled, seen), indexed directly by timer id, so that a query
+ * can be answered without opening the database. {@link TimerRepository}
+ * keeps it up to date as it writes timers out: the file is marked as being
+ * written before the database is, and only marked clean again once it has
+ * caught up, so if the process dies in between it is rebuilt rather than
+ * trusted.
+ */
+public class ConditionSnapshot
+{
+	private static final String FILE_NAME = "conditions.snap";
+	private static final int MAGIC = 0x54696d72;  // "Timr"
+	private static final int VERSION = 1;
+
+	// Header: magic, version, state, capacity (in records)
+	private static final int OFF_MAGIC = 0, OFF_VERSION = 4, OFF_STATE = 8, OFF_CAPACITY = 12;
+	private static final int HEADER_SIZE = 16;
+	// Record: next (long), flags (int), padding
+	private static final int RECORD_SIZE = 16;
+	private static final int FLAG_PRESENT = 1, FLAG_ENABLED = 2, FLAG_SEEN = 4;
+	/** Set while a write is in progress, here or to the database; if we see it on opening, the writer died. */
+	private static final int STATE_CLEAN = 0, STATE_WRITING = 1;
+	private static final int MIN_CAPACITY = 64;
+
+	/** Results of {@link #query(long, int, long)}. */
+	static final int STALE = -1, NO_TIMER = 0, LATE_AND_UNSEEN = 1, NOT_LATE_OR_SEEN = 2;
+
+	private static ConditionSnapshot instance;
+
+	private final File file;
+	private RandomAccessFile raf;
+	private MappedByteBuffer map;
+	private int capacity;
+	private boolean valid;
+	/** Database writes begun with {@link #beginUpdate()} and not yet finished. */
+	private int updates;
+
+	private ConditionSnapshot(Context context)
+	{
+		file = new File(context.getFilesDir(), FILE_NAME);
+		if (! file.exists()) return;
+		try {
+			open(0);
+			valid = map.getInt(OFF_MAGIC) == MAGIC && map.getInt(OFF_VERSION) == VERSION
+					&& map.getInt(OFF_STATE) == STATE_CLEAN;
+			capacity = map.getInt(OFF_CAPACITY);
+			if (map.capacity() < HEADER_SIZE + (long)capacity * RECORD_SIZE) valid = false;
+		} catch (IOException e) {
+			Log.e(TimerActivity.TAG, "Can't open condition snapshot: "+e);
+			valid = false;
+		}
+	}
+
+	public static synchronized ConditionSnapshot get(Context context)
+	{
+		if (instance == null) instance = new ConditionSnapshot(context.getApplicationContext());
+		return instance;
+	}
+
+	private void open(int records) throws IOException
+	{
+		if (raf == null) raf = new RandomAccessFile(file, "rw");
+		long size = Math.max(raf.length(), HEADER_SIZE + (long)records * RECORD_SIZE);
+		map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	public synchronized boolean isValid()
+	{
+		return valid;
+	}
+
+	/**
+	 * Answer Locale's "late by {@code mins} and not seen" question for timer
+	 * {@code id}, or return {@link #STALE} if the database must be asked.
+	 */
+	public synchronized int query(long id, int mins, long now)
+	{
+		if (! valid) return STALE;
+		if (id < 0 || id >= capacity) return NO_TIMER;
+		int off = HEADER_SIZE + (int)id * RECORD_SIZE;
+		int flags = map.getInt(off + 8);
+		if ((flags & FLAG_PRESENT) == 0) return NO_TIMER;
+		boolean enabled = (flags & FLAG_ENABLED) != 0, seen = (flags & FLAG_SEEN) != 0;
+		return Schedule.isLateByMins(enabled, map.getLong(off), now, mins) && ! seen
+				? LATE_AND_UNSEEN : NOT_LATE_OR_SEEN;
+	}
+
+	/**
+	 * Call before writing timers to the database; follow with
+	 * {@link #finishUpdate(Iterable, Iterable)} whether or not that worked.
+	 */
+	public synchronized void beginUpdate()
+	{
+		if (updates++ == 0 && valid) beginWrite();
+	}
+
+	/**
+	 * Record the current state of the timers just written, and forget those
+	 * just removed; pass nothing if the database write failed. Changes are
+	 * kept until {@link #rebuild(TimerDB)} has succeeded.
+	 */
+	public synchronized void finishUpdate(Iterable<Timer> timers, Iterable<Long> removed)
+	{
+		updates--;
+		if (! valid) return;
+		try {
+			for (Timer t : timers) {
+				write(t.id, t.nextMillis, (t.enabled ? FLAG_ENABLED : 0) | (t.seen ? FLAG_SEEN : 0) | FLAG_PRESENT);
+			}
+			for (long id : removed) {
+				if (id < capacity) write(id, 0, 0);
+			}
+			endWrite();
+		} catch (IOException e) {
+			fail(e);
+		}
+	}
+
+	/** {@link #finishUpdate(Iterable, Iterable)} for a write that changed nothing. */
+	public void finishUpdate()
+	{
+		finishUpdate(Collections.<Timer>emptyList(), Collections.<Long>emptyList());
+	}
+
+	/** Rewrite the whole snapshot from the database. */
+	public synchronized void rebuild(TimerDB db)
+	{
+		long start = System.currentTimeMillis();
+		Cursor c = db.getAllEntries();
+		try {
+			if (raf != null) raf.setLength(0);
+			capacity = 0;
+			open(0);
+			map.putInt(OFF_STATE, STATE_WRITING);
+			while (c.moveToNext()) {
+				int flags = FLAG_PRESENT | (c.getInt(TimerDB.COL_ENABLED) > 0 ? FLAG_ENABLED : 0)
+						| (c.getInt(TimerDB.COL_SEEN) > 0 ? FLAG_SEEN : 0);
+				write(c.getLong(TimerDB.COL_ID), c.getLong(TimerDB.COL_NEXT), flags);
+			}
+			map.putInt(OFF_MAGIC, MAGIC);
+			map.putInt(OFF_VERSION, VERSION);
+			endWrite();
+			valid = true;
+			Log.d(TimerActivity.TAG, "Rebuilt condition snapshot in "+(System.currentTimeMillis()-start)+"ms");
+		} catch (IOException e) {
+			fail(e);
+		} finally {
+			c.close();
+		}
+	}
+
+	private void beginWrite()
+	{
+		map.putInt(OFF_STATE, STATE_WRITING);
+	}
+
+	/** Marks the file clean, unless a database write is still going on. */
+	private void endWrite()
+	{
+		map.putInt(OFF_CAPACITY, capacity);
+		if (updates == 0) map.putInt(OFF_STATE, STATE_CLEAN);
+	}
+
+	private void write(long id, long next, int flags) throws IOException
+	{
+		if (id < 0) return;
+		if (id >= capacity) {
+			int records = Math.max(MIN_CAPACITY, capacity);
+			while (records <= id) records *= 2;
+			open(records);
+			capacity = records;
+		}
+		int off = HEADER_SIZE + (int)id * RECORD_SIZE;
+		map.putLong(off, next);
+		map.putInt(off + 8, flags);
+	}
+
+	private void fail(IOException e)
+	{
+		Log.e(TimerActivity.TAG, "Condition snapshot failed, falling back to database: "+e);
+		valid = false;
+		try {
+			if (raf != null) raf.close();
+		} catch (IOException ignored) {}
+		raf = null;
+		map = null;
+		file.delete();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.TimeZone;
+
+/**
+ * The arithmetic behind what {@code TimerActivity.ticker} shows each
+ * second: the countdown in whole seconds, split as {@link HMSPicker} shows
+ * it, when to tick again, and the next alarm times as "HH:MM". None of it
+ * allocates once running, which TickAllocationTest checks.
+ */
+public class Countdown
+{
+	private static final long MINUTE = 60 * 1000L;
+	private static final int MINUTES_PER_DAY = 24 * 60;
+
+	/** "HH:MM" for each minute of the day, made the first time it is shown. */
+	private static final String[] HHMM = new String[MINUTES_PER_DAY];
+
+	/** @return the nearest whole number of seconds from {@code now} until {@code nextMillis}, or 0 if past */
+	static int secsUntil(long nextMillis, long now)
+	{
+		return (int)Math.max(0, Math.round((nextMillis - now) / 1000.0));
+	}
+
+	/** @return how long to wait for the countdown to next change: just past the next whole second */
+	static long tickDelay(long nextMillis, long now)
+	{
+		long remaining = nextMillis - now;
+		return (remaining > 0) ? (remaining % 1000 + 3) : 500;
+	}
+
+	/** @return the hours of {@code secs}, at most 99 as the picker shows */
+	static int hours(int secs)
+	{
+		return Math.min(secs / 3600, 99);
+	}
+
+	static int minutes(int secs)
+	{
+		return (secs / 60) % 60;
+	}
+
+	static int seconds(int secs)
+	{
+		return secs % 60;
+	}
+
+	/** @return {@code minuteOfDay} as "HH:MM" */
+	static String hhmm(int minuteOfDay)
+	{
+		String s = HHMM[minuteOfDay];
+		if (s == null) {
+			int h = minuteOfDay / 60, m = minuteOfDay % 60;
+			s = new String(new char[] { (char)('0' + h / 10), (char)('0' + h % 10), ':',
+					(char)('0' + m / 10), (char)('0' + m % 10) });
+			HHMM[minuteOfDay] = s;
+		}
+		return s;
+	}
+
+	/**
+	 * One alarm time as shown in local time to the minute, remembering what
+	 * was last shown so that the text is only changed when the minute (or
+	 * the time zone) does.
+	 */
+	static class NextTime
+	{
+		private long shownMins = Long.MIN_VALUE;
+		private String text;
+		private TimeZone zone;
+		private int generation = -1;
+
+		/**
+		 * @param ms the alarm time, or -1 if there isn't one
+		 * @return whether {@link #text()} has changed
+		 */
+		boolean set(long ms)
+		{
+			long mins = ms >= 0 ? ms / MINUTE : -1;
+			int g = NightWindow.generation();
+			if (mins == shownMins && g == generation) return false;
+			if (g != generation) {
+				zone = TimeZone.getDefault();
+				generation = g;
+			}
+			shownMins = mins;
+			if (ms < 0) {
+				text = null;
+			} else {
+				int m = (int)(((ms + zone.getOffset(ms)) / MINUTE) % MINUTES_PER_DAY);
+				text = hhmm(m < 0 ? m + MINUTES_PER_DAY : m);
+			}
+			return true;
+		}
+
+		/** @return "HH:MM", or null if there's no time */
+		String text()
+		{
+			return text;
+		}
+	}
+}
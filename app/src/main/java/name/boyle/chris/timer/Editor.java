@@ -16,19 +16,18 @@
 
 package name.boyle.chris.timer;
 
+import android.app.AlertDialog;
 import android.app.TimePickerDialog;
 import android.app.TimePickerDialog.OnTimeSetListener;
 import android.content.Context;
+import android.content.DialogInterface;
 import android.content.Intent;
-import android.media.Ringtone;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.text.format.DateFormat;
-import android.text.format.Time;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.widget.Button;
@@ -44,15 +43,22 @@ import android.widget.CompoundButton.OnCheckedChangeListener;
 public class Editor extends RelativeLayout
 {
 	static final String NO_TIME = "--:--";
+	/** Labels for {@link NagPolicy#PRESETS}, in the same order. */
+	static final String[] NAG_LABELS = { "Remind every 5 minutes",
+			"Remind after 1, 2, 5, 10, 30 minutes, then every 30",
+			"Remind after 1, 2, 5, 10, 30 minutes, then stop",
+			"Remind every 15 minutes", "Remind every hour", "Don't remind" };
 	EditText timerName;
 	ToggleButton toggler;
     HMSPicker next, interval;
-	Button reset, nightStart, nightStop, dayTone, nightTone;
-	CheckBox dayLED, dayWait, nightLED, nightWait, nightNext;
+	Button reset, nightStart, nightStop, dayTone, nightTone, nags;
+	CheckBox dayLED, dayWait, nightLED, nightWait, nightNext, exact;
 	TextView nextAlarm, nextAlarm2;
 	Timer timer;
 	TimerActivity parent;
 	private boolean ignoreChanges;
+	// What updateNextTimes(), which runs every second, last showed
+	private final Countdown.NextTime nextTime = new Countdown.NextTime(), nextTime2 = new Countdown.NextTime();
 
 	public Editor(Context context)
 	{
@@ -70,6 +76,7 @@ public class Editor extends RelativeLayout
 				timer.reset(context);
 				timer.seen = false;
 				parent.save();
+				parent.repo.record(FireHistory.reset(timer.id, Clock.get().now()));
 				timer.unNotify(context);
 				timer.setNextAlarm(context);
 				parent.ticker.run();
@@ -80,7 +87,7 @@ public class Editor extends RelativeLayout
 			public void afterTextChanged(Editable s) {
 				if (ignoreChanges) return;
 				timer.name = s.toString();
-				parent.delayedSave();
+				parent.save();
 			}
 			public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
 			public void onTextChanged(CharSequence s, int start, int before, int count) {}
@@ -92,7 +99,7 @@ public class Editor extends RelativeLayout
 				timer.enabled = isChecked;
 				int secs = next.getSecs();
 				if (secs <= 0) secs += interval.getSecs();
-				timer.nextMillis = secs*1000 + (isChecked ? System.currentTimeMillis()+3 : 0);
+				timer.nextMillis = secs*1000 + (isChecked ? Clock.get().now()+3 : 0);
 				parent.handler.removeCallbacks(parent.ticker);
 				if (isChecked) parent.handler.postDelayed(parent.ticker, 1003);
 				timer.seen = false;
@@ -108,16 +115,18 @@ public class Editor extends RelativeLayout
 					if (ignoreChanges) return;
 					int s = next.getSecs();
 					boolean cancelling = timer.isLateByMins(0) && s > 0;
-					timer.nextMillis = s*1000 + (timer.enabled ? System.currentTimeMillis()-3 : 0);
+					timer.nextMillis = s*1000 + (timer.enabled ? Clock.get().now()-3 : 0);
 					if (timer.enabled) parent.ticker.run(); else updateNextTimes();
 					timer.setNextAlarm(getContext());
 					timer.seen = false;
-					if (cancelling) {
-						parent.save();
-						timer.unNotify(context);
-					} else {
-						parent.delayedSave();
-					}
+					parent.save();
+					if (cancelling) timer.unNotify(context);
+				}
+			});
+			next.setOnPreviewListener(new HMSPicker.OnPreviewListener() {
+				public void onPreview(HMSPicker picker, int secs) {
+					long ms = secs*1000 + Clock.get().now();
+					showNextTimes(ms, timer.intervalSecs > 0 ? ms + timer.intervalSecs*1000 : -1);
 				}
 			});
 	        interval = (HMSPicker)findViewById(R.id.interval);
@@ -125,12 +134,18 @@ public class Editor extends RelativeLayout
 				public void onChanged(HMSPicker picker, int oldVal, int newVal) {
 					if (ignoreChanges) return;
 					timer.intervalSecs = interval.getSecs();
-					if (timer.nextMillis > System.currentTimeMillis()) {
+					if (timer.nextMillis > Clock.get().now()) {
 						timer.setNextAlarm(getContext());
 						timer.seen = false;
 					}
 					updateNextTimes();
-					parent.delayedSave();
+					parent.save();
+				}
+			});
+			interval.setOnPreviewListener(new HMSPicker.OnPreviewListener() {
+				public void onPreview(HMSPicker picker, int secs) {
+					long ms = (timer.enabled ? 0 : Clock.get().now()) + timer.nextMillis;
+					showNextTimes(ms, secs > 0 ? ms + secs*1000L : -1);
 				}
 			});
         }
@@ -154,6 +169,21 @@ public class Editor extends RelativeLayout
         nightLED.setOnCheckedChangeListener(cbChanged);
         nightWait = (CheckBox)findViewById(R.id.nightWait);
         nightWait.setOnCheckedChangeListener(cbChanged);
+        exact = (CheckBox)findViewById(R.id.exact);
+        exact.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+			public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+				if (ignoreChanges) return;
+				timer.exact = isChecked;
+				parent.save();
+				timer.setNextAlarm(getContext());
+			}
+        });
+        nags = (Button)findViewById(R.id.nags);
+        nags.setOnClickListener(new OnClickListener() {
+			public void onClick(View v) {
+				pickNags();
+			}
+        });
         if (! isInEditMode()) {
 	    	OnClickListener setTime = new OnClickListener() {
 	    		public void onClick(View v) {
@@ -176,18 +206,30 @@ public class Editor extends RelativeLayout
         }
 	}
 	
+	/**
+	 * Show the next two alarm times; only reformats when the minute shown
+	 * changes. A running timer's times come from its {@link Horizon}; a
+	 * stopped one's next time is relative to now, so is worked out here.
+	 */
 	protected void updateNextTimes()
 	{
-		Time t = new Time();
-		long ms = (timer.enabled ? 0 : System.currentTimeMillis()) + timer.nextMillis;
-		t.set(ms);
-		nextAlarm.setText(t.format("%H:%M"));
-		if (timer.intervalSecs > 0) {
-			t.set(ms+timer.intervalSecs*1000);
-			nextAlarm2.setText(t.format("%H:%M"));
+		long ms, ms2;
+		if (timer.enabled) {
+			Horizon h = timer.horizon();
+			ms = h.fireAt(0);
+			ms2 = h.fireAt(1);
 		} else {
-			nextAlarm2.setText(NO_TIME);
+			ms = Clock.get().now() + timer.nextMillis;
+			ms2 = timer.intervalSecs > 0 ? ms + timer.intervalSecs*1000 : -1;
 		}
+		showNextTimes(ms, ms2);
+	}
+
+	/** @param ms2 the time after next, or -1 if there isn't one */
+	private void showNextTimes(long ms, long ms2)
+	{
+		if (nextTime.set(ms)) nextAlarm.setText(ms >= 0 ? nextTime.text() : NO_TIME);
+		if (nextTime2.set(ms2)) nextAlarm2.setText(ms2 >= 0 ? nextTime2.text() : NO_TIME);
 	}
 		
 	OnCheckedChangeListener cbChanged = new OnCheckedChangeListener() {
@@ -229,8 +271,41 @@ public class Editor extends RelativeLayout
         nightStart.setText(secsToHHMM(timer.nightStart));
         nightStop.setText(secsToHHMM(timer.nightStop));
         nightNext.setChecked(timer.nightNext);
+        exact.setChecked(timer.exact);
+        updateNags();
         ignoreChanges = false;
     }
+
+    /** Index of the timer's policy in {@link NagPolicy#PRESETS}, or -1 if it is something else. */
+    private int nagPreset()
+    {
+    	for (int i = 0; i < NagPolicy.PRESETS.length; i++) {
+    		if (NagPolicy.parse(NagPolicy.PRESETS[i]).equals(timer.nagPolicy)) return i;
+    	}
+    	return -1;
+    }
+
+    protected void updateNags()
+    {
+    	int i = nagPreset();
+    	nags.setText(i < 0 ? "Remind after " + timer.nagPolicy + " minutes" : NAG_LABELS[i]);
+    }
+
+    protected void pickNags()
+    {
+    	new AlertDialog.Builder(getContext())
+    		.setTitle("While waiting")
+    		.setSingleChoiceItems(NAG_LABELS, nagPreset(), new DialogInterface.OnClickListener() {
+    			public void onClick(DialogInterface dialog, int which) {
+    				timer.nagPolicy = NagPolicy.parse(NagPolicy.PRESETS[which]);
+    				updateNags();
+    				parent.save();
+    				timer.setNextAlarm(getContext());
+    				dialog.dismiss();
+    			}
+    		})
+    		.show();
+    }
     
     protected void setTone(boolean isNight, Uri uri)
     {
@@ -248,10 +323,18 @@ public class Editor extends RelativeLayout
         } else if (RingtoneManager.isDefault(uri)) {
     		target.setText("Default");
     	} else {
-    		Ringtone r = RingtoneManager.getRingtone(getContext(), uri);
-   			target.setText(r.getTitle(getContext()));
+    		String title = ToneTitles.get(getContext()).get(uri, toneTitleLoaded);
+    		target.setText(title != null ? title : "...");
     	}
     }
+
+    ToneTitles.Callback toneTitleLoaded = new ToneTitles.Callback() {
+    	public void onTitle(Uri uri, String title) {
+    		// We may have moved on to another timer by now
+    		if (uri.equals(timer.dayTone)) dayTone.setText(title);
+    		if (uri.equals(timer.nightTone)) nightTone.setText(title);
+    	}
+    };
     
     protected String secsToHHMM(long secs)
     {
@@ -261,10 +344,7 @@ public class Editor extends RelativeLayout
     protected void setNextPicker()
     {
     	if (timer.enabled) {
-    		long in = timer.nextMillis - System.currentTimeMillis();
-    		long out = Math.round(in/1000.0);
-    		Log.d(TimerActivity.TAG, "setNextPicker "+timer.nextMillis+", "+in+", "+out);
-    		next.setSecs((int)Math.max(0, out));
+    		next.setSecs(Countdown.secsUntil(timer.nextMillis, Clock.get().now()));
     	} else {
     		next.setSecs((int)timer.nextMillis/1000);
     	}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+/**
+ * Record of when alarms were actually delivered, seen and reset, so we can
+ * tell how late {@code AlarmManager} is in practice. Events are queued by
+ * {@link TimerRepository#record(Event)} and written with the next batch of
+ * timer changes; the table only keeps the last {@link #MAX_RECORDS} fires.
+ */
+public class FireHistory
+{
+	static final int MAX_RECORDS = 1000;
+
+	static final int FIRED = 0, SEEN = 1, RESET = 2;
+
+	/** Something that happened to a timer; SEEN and RESET apply to its latest fire. */
+	static class Event
+	{
+		final int type;
+		final long timer, scheduled, when;
+		final boolean night;
+
+		private Event(int type, long timer, long scheduled, long when, boolean night)
+		{
+			this.type = type;
+			this.timer = timer;
+			this.scheduled = scheduled;
+			this.when = when;
+			this.night = night;
+		}
+	}
+
+	static Event fired(long timer, long scheduled, long delivered, boolean night)
+	{
+		return new Event(FIRED, timer, scheduled, delivered, night);
+	}
+
+	static Event seen(long timer, long when)
+	{
+		return new Event(SEEN, timer, 0, when, false);
+	}
+
+	static Event reset(long timer, long when)
+	{
+		return new Event(RESET, timer, 0, when, false);
+	}
+
+	/** Summary of how late a timer's alarms were delivered, in milliseconds. */
+	public static class Lateness
+	{
+		public final int count;
+		public final long min, median, p90, max;
+
+		/** @param late delivery delays, sorted ascending */
+		Lateness(long[] late)
+		{
+			count = late.length;
+			if (count == 0) {
+				min = median = p90 = max = 0;
+				return;
+			}
+			min = late[0];
+			median = late[(count - 1) / 2];
+			p90 = late[(int)Math.ceil(count * 0.9) - 1];
+			max = late[count - 1];
+		}
+
+		@Override
+		public String toString()
+		{
+			return count + " fires, late by min " + min + " median " + median
+					+ " p90 " + p90 + " max " + max + " ms";
+		}
+	}
+}
@@ -21,25 +21,56 @@ import android.util.AttributeSet;
 import android.view.LayoutInflater;
 import android.widget.LinearLayout;
 
+/**
+ * Hours, minutes and seconds pickers that carry into each other. Listeners
+ * hear about a change once per gesture (a tap, or a whole long press),
+ * however many steps and carries it took; while a long press is still
+ * going, the preview listener sees each new value.
+ */
 public class HMSPicker extends LinearLayout
 {
 	public interface OnChangedListener {
         void onChanged(HMSPicker picker, int oldVal, int newVal);
     }
 
+	/** For showing the effect of a change before it is made; don't save or reschedule here. */
+	public interface OnPreviewListener {
+        void onPreview(HMSPicker picker, int secs);
+    }
+
 	private OnChangedListener mListener;
+	private OnPreviewListener mPreviewListener;
 	NumberPicker hourPicker, minPicker, secPicker;
 	protected int mPrevious;
+	private boolean mPreviewQueued;
 	protected NumberPicker.OnChangedListener passTheBuck = new NumberPicker.OnChangedListener() {
 		public void onChanged(NumberPicker picker, int oldVal, int newVal) {
-			notifyChange();
+			// A carry changes several pickers in one go; only show where it ends up
+			if (mPreviewQueued) return;
+			mPreviewQueued = true;
+			post(preview);
 		}
     };
+	protected NumberPicker.OnGestureEndListener gestureEnded = new NumberPicker.OnGestureEndListener() {
+		public void onGestureEnd(NumberPicker picker) {
+			notifyChange();
+		}
+	};
+	private final Runnable preview = new Runnable() {
+		public void run() {
+			mPreviewQueued = false;
+			if (mPreviewListener != null) mPreviewListener.onPreview(HMSPicker.this, getSecs());
+		}
+	};
 
 	public void setOnChangeListener(OnChangedListener listener) {
         mListener = listener;
     }
 
+	public void setOnPreviewListener(OnPreviewListener listener) {
+        mPreviewListener = listener;
+    }
+
 	public HMSPicker(Context context)
 	{
 		this(context, null);
@@ -55,32 +86,39 @@ public class HMSPicker extends LinearLayout
 	        hourPicker = (NumberPicker)findViewById(R.id.h);
 	        hourPicker.setRange(0,99);
 	        hourPicker.setOnChangeListener(passTheBuck);
+	        hourPicker.setOnGestureEndListener(gestureEnded);
 	        minPicker = (NumberPicker)findViewById(R.id.m);
-	        hourPicker.smaller = minPicker;
-	        minPicker.larger = hourPicker;
+	        hourPicker.setSmaller(minPicker);
 	        minPicker.setRange(0,59);
 	        minPicker.setSpeed(100);
 	        minPicker.setOnChangeListener(passTheBuck);
+	        minPicker.setOnGestureEndListener(gestureEnded);
 	        secPicker = (NumberPicker)findViewById(R.id.s);
-	        minPicker.smaller = secPicker;
-	        secPicker.larger = minPicker;
+	        minPicker.setSmaller(secPicker);
 	        secPicker.setRange(0,59);
 	        secPicker.setSpeed(100);
 	        secPicker.setOnChangeListener(passTheBuck);
+	        secPicker.setOnGestureEndListener(gestureEnded);
 		} catch (ClassCastException issue6894) {}  // just the ADT layout editor failing for some reason
 	}
-	
-	
+
+	/** Whether the user is part way through a long press. */
+	public boolean isAdjusting()
+	{
+		return hourPicker.isRepeating() || minPicker.isRepeating() || secPicker.isRepeating();
+	}
 
 	public void setSecs(int secs)
 	{
-		int s = secs % 60, m = (secs/60) % 60, h = Math.min(secs/3600, 99);
-		hourPicker.setCurrent(h);
-		minPicker.setCurrent(m);
-		secPicker.setCurrent(s);
+		hourPicker.setCurrent(Countdown.hours(secs));
+		minPicker.setCurrent(Countdown.minutes(secs));
+		secPicker.setCurrent(Countdown.seconds(secs));
+		mPrevious = getSecs();
 	}
 
 	protected void notifyChange() {
+		removeCallbacks(preview);
+		mPreviewQueued = false;
 		int current = getSecs();
 		if (current == mPrevious) return;
         if (mListener != null) {
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+/**
+ * The upcoming fire times of one timer, worked out as far ahead as anyone
+ * has asked and then kept until the timer's schedule changes. Each fire is
+ * marked as night or day, and whether it will wait for acknowledgement;
+ * later fires assume it is acknowledged straight away, as the editor always
+ * has.
+ */
+public class Horizon
+{
+	/** Most fires worked out ahead. */
+	static final int MAX_FIRES = 128;
+
+	private final NightWindow window = new NightWindow();
+	private final long[] fires = new long[MAX_FIRES];
+	private final boolean[] night = new boolean[MAX_FIRES], waits = new boolean[MAX_FIRES];
+	private int count;
+
+	// What the fires above were worked out from
+	private boolean enabled, nightNext, dayWait, nightWait;
+	private long nextMillis = Long.MIN_VALUE, intervalSecs;
+	private int nightStart, nightStop, generation;
+
+	/**
+	 * Make sure what's cached was worked out from these settings, forgetting
+	 * it if not. Cheap when nothing has changed.
+	 */
+	public synchronized Horizon sync(boolean enabled, long nextMillis, long intervalSecs, int nightStart,
+			int nightStop, boolean nightNext, boolean dayWait, boolean nightWait)
+	{
+		int g = NightWindow.generation();
+		if (enabled == this.enabled && nextMillis == this.nextMillis && intervalSecs == this.intervalSecs
+				&& nightStart == this.nightStart && nightStop == this.nightStop && nightNext == this.nightNext
+				&& dayWait == this.dayWait && nightWait == this.nightWait && g == generation) {
+			return this;
+		}
+		this.enabled = enabled;
+		this.nextMillis = nextMillis;
+		this.intervalSecs = intervalSecs;
+		this.nightStart = nightStart;
+		this.nightStop = nightStop;
+		this.nightNext = nightNext;
+		this.dayWait = dayWait;
+		this.nightWait = nightWait;
+		generation = g;
+		count = 0;
+		return this;
+	}
+
+	/** @return when the {@code i}th fire from now (counting from 0) will be, or -1 if never */
+	public synchronized long fireAt(int i)
+	{
+		return extend(i + 1) > i ? fires[i] : -1;
+	}
+
+	/** Whether the {@code i}th fire is a night one; only meaningful if {@link #fireAt(int)} isn't -1. */
+	public synchronized boolean isNight(int i)
+	{
+		return extend(i + 1) > i && night[i];
+	}
+
+	/** Whether the {@code i}th fire will wait to be acknowledged. */
+	public synchronized boolean waits(int i)
+	{
+		return extend(i + 1) > i && waits[i];
+	}
+
+	/** @return how many fires there are at or before {@code until}, up to {@link #MAX_FIRES} */
+	public synchronized int countUntil(long until)
+	{
+		int i = 0;
+		while (extend(i + 1) > i && fires[i] <= until) i++;
+		return i;
+	}
+
+	/** Work out fires until there are {@code n}, if there will be that many; @return how many there are */
+	private int extend(int n)
+	{
+		if (! enabled) return 0;
+		n = Math.min(n, MAX_FIRES);
+		while (count < n) {
+			long at;
+			if (count == 0) {
+				at = nextMillis;
+			} else if (intervalSecs > 0) {
+				at = Schedule.afterReset(true, intervalSecs, fires[count - 1]);
+			} else {
+				break;  // one-shot
+			}
+			boolean isNight = (count == 0 && nightNext)
+					|| window.isNight(nightStart, nightStop, at, at);
+			fires[count] = at;
+			night[count] = isNight;
+			waits[count] = isNight ? nightWait : dayWait;
+			count++;
+		}
+		return count;
+	}
+}
@@ -7,12 +7,17 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.database.Cursor;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.LinearLayout;
-import android.widget.SimpleCursorAdapter;
-import android.widget.Spinner;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.twofortyfouram.SharedResources;
@@ -36,6 +41,11 @@ public final class LocaleEdit extends Activity
 	static final String BUNDLE_EXTRA_MINS = "name.boyle.chris.timer.EXTRA_MINS";
 	static final String BUNDLE_EXTRA_ID = "name.boyle.chris.timer.EXTRA_ID";
 
+	/** Timers fetched at a time; more are loaded as the list is scrolled. */
+	private static final int PAGE_SIZE = 50;
+
+	private static final String STATE_SELECTED = "selected";
+
 	/**
 	 * Flag boolean that can only be set to true via the "Don't Save" menu item in {@link #onMenuItemSelected(int, MenuItem)}. If
 	 * true, then this {@code Activity} should return {@link Activity#RESULT_CANCELED} in {@link #finish()}.
@@ -45,7 +55,30 @@ public final class LocaleEdit extends Activity
 	private boolean isCancelled;
 
 	private TimerDB db;
-	private Cursor timers;
+	private ArrayAdapter<Choice> choices;
+	private String filter = "";
+	private boolean moreToLoad;
+	private long selectedId = -1;
+	private TextView selected;
+
+	/** A timer in the picker; the database is only asked for ids and names. */
+	private class Choice
+	{
+		final long id;
+		final String name;
+
+		Choice(long id, String name)
+		{
+			this.id = id;
+			this.name = name;
+		}
+
+		@Override
+		public String toString()
+		{
+			return describe(id, name);
+		}
+	}
 
 	/**
 	 * {@inheritDoc}
@@ -77,26 +110,35 @@ public final class LocaleEdit extends Activity
 		picker.setRange(0, 995);
 		picker.setStep(5);
 
-		db = new TimerDB(this);
-		db.open();
-		timers = db.getAllEntries();
-
-		final Spinner spinner = ((Spinner) findViewById(R.id.spinner));
-		SimpleCursorAdapter a = new SimpleCursorAdapter(this, android.R.layout.simple_spinner_item,
-				timers, new String[]{TimerDB.KEY_NAME}, new int[]{android.R.id.text1});
-		a.setViewBinder(new SimpleCursorAdapter.ViewBinder() {
-			public boolean setViewValue(View view, Cursor cursor, int columnIndex) {
-				String name = cursor.getString(columnIndex);
-				if (name == null || name.length() == 0) {
-					name = getString(R.string.locale_spinner_no_name);
-				}
-				((TextView)view).setText(MessageFormat.format(getString(R.string.locale_spinner_text),
-						cursor.getPosition()+1, name));
-				return true;
+		db = TimerRepository.get(this).db();
+		selected = (TextView) findViewById(R.id.selected);
+		choices = new ArrayAdapter<Choice>(this, android.R.layout.simple_list_item_1);
+		final ListView list = (ListView) findViewById(R.id.timers);
+		list.setAdapter(choices);
+		list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+			public void onItemClick(AdapterView<?> parent, View view, int position, long rowId) {
+				Choice c = choices.getItem(position);
+				select(c.id, c.name);
 			}
 		});
-		a.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-		spinner.setAdapter(a);
+		list.setOnScrollListener(new AbsListView.OnScrollListener() {
+			public void onScrollStateChanged(AbsListView view, int scrollState) {}
+			public void onScroll(AbsListView view, int first, int visible, int total) {
+				if (moreToLoad && first + visible >= total) loadPage();
+			}
+		});
+		((EditText) findViewById(R.id.filter)).addTextChangedListener(new TextWatcher() {
+			public void afterTextChanged(Editable s) {
+				filter = s.toString();
+				choices.clear();
+				moreToLoad = true;
+				loadPage();
+			}
+			public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+			public void onTextChanged(CharSequence s, int start, int before, int count) {}
+		});
+		moreToLoad = true;
+		loadPage();
 
 		/*
 		 * if savedInstanceState == null, then we are entering the Activity directly from Locale and we need to check whether the
@@ -112,29 +154,59 @@ public final class LocaleEdit extends Activity
 			if (forwardedBundle != null)
 			{
 				picker.setCurrent(forwardedBundle.getInt(BUNDLE_EXTRA_MINS, 0));
-				long id = forwardedBundle.getLong(BUNDLE_EXTRA_ID, -1);
-				if (id >= 0 && timers.moveToFirst()) {
-					do {
-						if (timers.getLong(TimerDB.COL_ID) == id) {
-							spinner.setSelection(timers.getPosition());
-							break;
-						}
-					} while (timers.moveToNext());
-				}
+				selectById(forwardedBundle.getLong(BUNDLE_EXTRA_ID, -1));
 			}
 		}
-		/*
-		 * if savedInstanceState != null, there is no need to restore any Activity state directly (e.g. onSaveInstanceState()).
-		 * This is handled by the Spinner automatically
-		 */
+		else
+		{
+			/*
+			 * The picker and filter restore themselves, but the selection is ours
+			 */
+			selectById(savedInstanceState.getLong(STATE_SELECTED, -1));
+		}
+		if (selectedId < 0 && ! choices.isEmpty()) select(choices.getItem(0).id, choices.getItem(0).name);
 	}
 
 	@Override
-	protected void onDestroy()
+	protected void onSaveInstanceState(Bundle outState)
+	{
+		super.onSaveInstanceState(outState);
+		outState.putLong(STATE_SELECTED, selectedId);
+	}
+
+	/** Append the next page of timers matching the filter. */
+	private void loadPage()
+	{
+		Cursor c = db.findByName(filter, choices.getCount(), PAGE_SIZE);
+		moreToLoad = c.getCount() == PAGE_SIZE;
+		choices.setNotifyOnChange(false);
+		while (c.moveToNext()) {
+			choices.add(new Choice(c.getLong(TimerDB.NAME_COL_ID), c.getString(TimerDB.NAME_COL_NAME)));
+		}
+		c.close();
+		choices.notifyDataSetChanged();
+	}
+
+	/** Select a saved timer directly, without looking for it in the list. */
+	private void selectById(long id)
+	{
+		if (id < 0) return;
+		Timer t = TimerRepository.get(this).get(id);
+		if (t != null) select(t.id, t.name);
+	}
+
+	private void select(long id, String name)
 	{
-		super.onDestroy();
-		timers.close();
-		db.close();
+		selectedId = id;
+		selected.setText(describe(id, name));
+	}
+
+	private String describe(long id, String name)
+	{
+		if (name == null || name.length() == 0) {
+			name = getString(R.string.locale_spinner_no_name);
+		}
+		return MessageFormat.format(getString(R.string.locale_spinner_text), id, name);
 	}
 
 	/**
@@ -148,7 +220,6 @@ public final class LocaleEdit extends Activity
 		else
 		{
 			final NumberPicker picker = ((NumberPicker) findViewById(R.id.picker));
-			final Spinner spinner = ((Spinner) findViewById(R.id.spinner));
 
 			/*
 			 * This is the return Intent, into which we'll put all the required extras
@@ -163,7 +234,7 @@ public final class LocaleEdit extends Activity
 			final Bundle storeAndForwardExtras = new Bundle();
 
 			int mins = picker.getCurrent();
-			long id = spinner.getSelectedItemId();
+			long id = selectedId;
 			storeAndForwardExtras.putInt(BUNDLE_EXTRA_MINS, mins);
 			storeAndForwardExtras.putLong(BUNDLE_EXTRA_ID, id);
 			returnIntent.putExtra(com.twofortyfouram.Intent.EXTRA_STRING_BLURB,
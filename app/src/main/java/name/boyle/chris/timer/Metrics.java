@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * In-memory latency histograms for the hot paths, so we can see where time
+ * goes when several timers fire at once. Recording is a few arithmetic
+ * operations and an array increment; nothing is allocated. See
+ * {@code adb shell dumpsys activity name.boyle.chris.timer/.TimerActivity},
+ * or send {@link Receiver#ACTION_DUMP_METRICS} to a debug build.
+ */
+public class Metrics
+{
+	static final int RECEIVE = 0, WAKE_LOCK = 1, NOTIFY = 2, DB_GET = 3, DB_SAVE = 4,
+			DB_WRITE = 5, ACTIVITY_SAVE = 6, DRIFT_EXACT = 7, DRIFT_INEXACT = 8;
+	private static final String[] NAMES = { "Receiver.onReceive", "wake lock held",
+			"Timer.notify", "TimerDB.getEntry", "TimerDB.saveEntry", "TimerDB.writeEntries",
+			"TimerActivity.save", "alarm drift, exact", "alarm drift, inexact" };
+
+	private static final Histogram[] histograms = new Histogram[NAMES.length];
+	static {
+		for (int i = 0; i < histograms.length; i++) histograms[i] = new Histogram();
+	}
+
+	/** @return a start time to pass to {@link #end(int, long)} */
+	static long start()
+	{
+		return System.nanoTime();
+	}
+
+	static void end(int metric, long start)
+	{
+		histograms[metric].record((System.nanoTime() - start) / 1000);
+	}
+
+	/** Record a value measured some other way, e.g. how late an alarm was. */
+	static void record(int metric, long micros)
+	{
+		histograms[metric].record(micros);
+	}
+
+	static void dump(String prefix, PrintWriter pw)
+	{
+		pw.print(prefix);
+		pw.println("Latency in microseconds (within 12.5%):");
+		for (int i = 0; i < histograms.length; i++) {
+			pw.print(prefix);
+			pw.print("  ");
+			pw.print(NAMES[i]);
+			pw.print(": ");
+			pw.println(histograms[i].summary());
+		}
+	}
+
+	static void reset()
+	{
+		for (Histogram h : histograms) h.reset();
+	}
+
+	/**
+	 * Counts values in log-linear buckets: exact below 16, then 8 buckets
+	 * per power of two, which bounds the error of any percentile at 1/8.
+	 */
+	static class Histogram
+	{
+		private static final int LINEAR = 16, SUB_BITS = 3, SUB_BUCKETS = 1 << SUB_BITS;
+		private static final int BUCKETS = LINEAR + (64 - 4) * SUB_BUCKETS;
+
+		private final long[] counts = new long[BUCKETS];
+		private long count, max;
+
+		static int bucket(long v)
+		{
+			if (v < LINEAR) return (int)Math.max(v, 0);
+			int exp = 63 - Long.numberOfLeadingZeros(v);
+			int sub = (int)(v >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return LINEAR + (exp - 4) * SUB_BUCKETS + sub;
+		}
+
+		/** Smallest value that falls in bucket {@code b}. */
+		static long lowest(int b)
+		{
+			if (b < LINEAR) return b;
+			int exp = (b - LINEAR) / SUB_BUCKETS + 4;
+			int sub = (b - LINEAR) % SUB_BUCKETS;
+			return (long)(SUB_BUCKETS + sub) << (exp - SUB_BITS);
+		}
+
+		synchronized void record(long v)
+		{
+			counts[bucket(v)]++;
+			count++;
+			if (v > max) max = v;
+		}
+
+		synchronized void reset()
+		{
+			Arrays.fill(counts, 0);
+			count = max = 0;
+		}
+
+		/** @return the upper end of the bucket holding the given fraction of values */
+		synchronized long percentile(double fraction)
+		{
+			if (count == 0) return 0;
+			long rank = (long)Math.ceil(count * fraction), seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				seen += counts[b];
+				if (seen >= rank) return Math.min(lowest(b + 1) - 1, max);
+			}
+			return max;
+		}
+
+		synchronized String summary()
+		{
+			return "count " + count + " p50 " + percentile(0.5) + " p95 " + percentile(0.95)
+					+ " p99 " + percentile(0.99) + " max " + max;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.Arrays;
+
+/**
+ * When a timer that is waiting for acknowledgement reminds us again: a list
+ * of gaps in minutes, each counted from the previous reminder, and whether
+ * the last gap then repeats until the timer is reset or the list simply
+ * ends. Written as e.g. {@code "1,2,5,10,30+"} (then every 30 minutes),
+ * {@code "1,2,5,10,30"} (then stop), or {@code ""} (never). Immutable.
+ */
+public class NagPolicy
+{
+	/** Every 5 minutes until reset, which is all older versions did. */
+	static final NagPolicy DEFAULT = new NagPolicy(new int[] { 5 }, true);
+
+	/** The choices offered by the editor, in the same order as its labels. */
+	static final String[] PRESETS = { "5+", "1,2,5,10,30+", "1,2,5,10,30", "15+", "60+", "" };
+
+	private static final long MINUTE = 60 * 1000L;
+
+	private final int[] gaps;
+	private final boolean repeatLast;
+	/** Time from the alarm to each reminder in {@link #gaps}. */
+	private final long[] offsets;
+
+	NagPolicy(int[] gaps, boolean repeatLast)
+	{
+		this.gaps = gaps;
+		this.repeatLast = repeatLast && gaps.length > 0;
+		offsets = new long[gaps.length];
+		long total = 0;
+		for (int i = 0; i < gaps.length; i++) {
+			total += gaps[i] * MINUTE;
+			offsets[i] = total;
+		}
+	}
+
+	/** @return the policy written as {@code spec}, or {@link #DEFAULT} if it is null or malformed */
+	static NagPolicy parse(String spec)
+	{
+		if (spec == null) return DEFAULT;
+		spec = spec.trim();
+		boolean repeat = spec.endsWith("+");
+		if (repeat) spec = spec.substring(0, spec.length() - 1);
+		if (spec.length() == 0) return new NagPolicy(new int[0], false);
+		String[] parts = spec.split(",");
+		int[] gaps = new int[parts.length];
+		try {
+			for (int i = 0; i < parts.length; i++) {
+				gaps[i] = Integer.parseInt(parts[i].trim());
+				if (gaps[i] <= 0) return DEFAULT;
+			}
+		} catch (NumberFormatException e) {
+			return DEFAULT;
+		}
+		return new NagPolicy(gaps, repeat);
+	}
+
+	/**
+	 * @param next the time the alarm itself is due
+	 * @param n 0 for the alarm itself, 1 for the first reminder, and so on
+	 * @return when that happens, or -1 if this policy has stopped by then
+	 */
+	long at(long next, int n)
+	{
+		if (n == 0) return next;
+		if (n <= gaps.length) return next + offsets[n - 1];
+		if (! repeatLast) return -1;
+		int last = gaps.length - 1;
+		return next + offsets[last] + (n - 1 - last) * (gaps[last] * MINUTE);
+	}
+
+	/** @return the first n for which {@link #at(long, int)} is not before {@code now}, or -1 */
+	int firstFrom(long next, long now)
+	{
+		if (now <= next) return 0;
+		for (int i = 0; i < gaps.length; i++) {
+			if (next + offsets[i] >= now) return i + 1;
+		}
+		if (! repeatLast) return -1;
+		int last = gaps.length - 1;
+		long period = gaps[last] * MINUTE;
+		long over = now - (next + offsets[last]);
+		return last + 1 + (int)Math.min((over + period - 1) / period, Integer.MAX_VALUE - gaps.length);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder b = new StringBuilder();
+		for (int i = 0; i < gaps.length; i++) {
+			if (i > 0) b.append(',');
+			b.append(gaps[i]);
+		}
+		if (repeatLast) b.append('+');
+		return b.toString();
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (! (o instanceof NagPolicy)) return false;
+		NagPolicy p = (NagPolicy)o;
+		return repeatLast == p.repeatLast && Arrays.equals(gaps, p.gaps);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Arrays.hashCode(gaps) * 2 + (repeatLast ? 1 : 0);
+	}
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.Calendar;
+
+/**
+ * Decides whether an alarm counts as a night one. The night-start,
+ * night-stop and force-wake times for yesterday, today and tomorrow are
+ * worked out once per local day (or when the time zone or the timer's night
+ * times change); after that each question is plain arithmetic.
+ * <p>
+ * Each boundary is resolved on its own date. A time of day that a clock
+ * change skips over comes that long after the jump, and one that happens
+ * twice is the later of the two.
+ */
+public class NightWindow
+{
+	/** After this time of day, an alarm set before the night stopped counts as a day alarm. */
+	static final int FORCE_WAKE_TIME = ((11 * 60) + 30) * 60;
+
+	private static volatile int zoneGeneration = 0;
+
+	/** Call when the time zone changes, so every window recalculates. */
+	public static void zoneChanged()
+	{
+		zoneGeneration++;
+	}
+
+	/** Changes whenever {@link #zoneChanged()} is called. */
+	static int generation()
+	{
+		return zoneGeneration;
+	}
+
+	private Calendar cal;
+	private int generation = -1;
+	private int start = -1, stop = -1;
+	private long todayStart = Long.MAX_VALUE, tomorrowStart = Long.MIN_VALUE;
+	// Index 0 is yesterday, 1 today, 2 tomorrow
+	private final long[] starts = new long[3], stops = new long[3], wakes = new long[3];
+
+	/**
+	 * @param nightStart seconds after local midnight that the night starts
+	 * @param nightStop seconds after local midnight that the night stops
+	 * @param nextMillis when the alarm in question is/was due
+	 * @param now the current time
+	 */
+	public synchronized boolean isNight(int nightStart, int nightStop, long nextMillis, long now)
+	{
+		prepare(nightStart, nightStop, now);
+		// The last night start, and the first night stop after that
+		int d = starts[1] <= now ? 1 : 0;
+		long lastNightStart = starts[d];
+		long nextNightStop = stops[d] >= lastNightStart ? stops[d] : stops[d + 1];
+		long lastForceWake = wakes[1] <= now ? wakes[1] : wakes[0];
+		return ! (lastNightStart <= nextMillis
+				&& (nextNightStop <= nextMillis || lastForceWake >= nextNightStop));
+	}
+
+	private void prepare(int nightStart, int nightStop, long now)
+	{
+		if (generation == zoneGeneration && nightStart == start && nightStop == stop
+				&& now >= todayStart && now < tomorrowStart) return;
+		if (cal == null || generation != zoneGeneration) {
+			cal = Calendar.getInstance();  // picks up the current default time zone
+			generation = zoneGeneration;
+		}
+		start = nightStart;
+		stop = nightStop;
+		cal.setTimeInMillis(now);
+		setTimeOfDay(0);
+		todayStart = cal.getTimeInMillis();
+		cal.add(Calendar.DAY_OF_MONTH, -1);
+		for (int i = 0; i < 3; i++) {
+			starts[i] = setTimeOfDay(nightStart);
+			stops[i] = setTimeOfDay(nightStop);
+			wakes[i] = setTimeOfDay(FORCE_WAKE_TIME);
+			setTimeOfDay(0);
+			cal.add(Calendar.DAY_OF_MONTH, 1);
+			if (i == 1) tomorrowStart = cal.getTimeInMillis();
+		}
+	}
+
+	private long setTimeOfDay(int secs)
+	{
+		cal.set(Calendar.HOUR_OF_DAY, secs / 3600);
+		cal.set(Calendar.MINUTE, (secs / 60) % 60);
+		cal.set(Calendar.SECOND, secs % 60);
+		cal.set(Calendar.MILLISECOND, 0);
+		return cal.getTimeInMillis();
+	}
+}
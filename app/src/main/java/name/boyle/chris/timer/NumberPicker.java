@@ -33,6 +33,11 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		void onChanged(NumberPicker picker, int oldVal, int newVal);
 	}
 
+	/** Told when the user lets go, after any number of {@link OnChangedListener#onChanged} calls. */
+	public interface OnGestureEndListener {
+		void onGestureEnd(NumberPicker picker);
+	}
+
 	public interface Formatter {
 		String toString(int value);
 	}
@@ -41,14 +46,22 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 	 * Use a custom NumberPicker formatting callback to use two-digit
 	 * minutes strings like "01".  Keeping a static formatter etc. is the
 	 * most efficient way to do this; it avoids creating temporary objects
-	 * on every call to format().
+	 * on every call to format().  The strings for 00-99, which is all that
+	 * HMSPicker ever shows, are made once up front.
 	 */
 	public static final NumberPicker.Formatter TWO_DIGIT_FORMATTER =
 			new NumberPicker.Formatter() {
 				final StringBuilder mBuilder = new StringBuilder();
 				final java.util.Formatter mFmt = new java.util.Formatter(mBuilder);
 				final Object[] mArgs = new Object[1];
+				final String[] mTwoDigits = new String[100];
+				{
+					for (int i = 0; i < mTwoDigits.length; i++) {
+						mTwoDigits[i] = (i < 10 ? "0" : "") + i;
+					}
+				}
 				public String toString(int value) {
+					if (value >= 0 && value < mTwoDigits.length) return mTwoDigits[value];
 					mArgs[0] = value;
 					mBuilder.delete(0, mBuilder.length());
 					mFmt.format("%02d", mArgs);
@@ -61,25 +74,32 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		public void run() {
 			if (mIncrement) {
 				increment();
-				mHandler.postDelayed(this, mSpeed);
 			} else if (mDecrement) {
 				decrement();
-				mHandler.postDelayed(this, mSpeed);
+			} else {
+				return;
 			}
+			mRepeats++;
+			mHandler.postDelayed(this, repeatDelay());
 		}
 	};
 
+	/** Long presses speed up: the delay halves every this many steps... */
+	private static final int ACCELERATE_EVERY = 8;
+	/** ...down to this many milliseconds. */
+	private static final long MIN_SPEED = 20;
+
 	private final TextView mText;
 
-	protected int mStart;
-	protected int mEnd;
-	protected int mCurrent;
-	protected int mPrevious;
-	private int mStep = 1;
+	/** The value and its carrying; see {@link #setSmaller(NumberPicker)}. */
+	private final PickerValue mValue = new PickerValue();
+	/** The value the text currently shows, so unchanged values aren't set again. */
+	private int mShown = Integer.MIN_VALUE;
 	private OnChangedListener mListener;
+	private OnGestureEndListener mGestureEndListener;
+	private int mRepeats;
 	private Formatter mFormatter;
 	private long mSpeed = 300;
-	protected NumberPicker smaller, larger;
 
 	private boolean mIncrement;
 	private boolean mDecrement;
@@ -98,6 +118,12 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		LayoutInflater inflater = (LayoutInflater) getContext().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
 		inflater.inflate(R.layout.number_picker, this, true);
 		mHandler = new Handler();
+		mValue.setListener(new PickerValue.Listener() {
+			public void onChanged(PickerValue value, int oldVal, int newVal) {
+				notifyChange(oldVal, newVal);
+				updateView();
+			}
+		});
 		try {
 		mIncrementButton = (NumberPickerButton) findViewById(R.id.increment);
 		mIncrementButton.setOnClickListener(this);
@@ -129,8 +155,13 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		mListener = listener;
 	}
 
+	public void setOnGestureEndListener(OnGestureEndListener listener) {
+		mGestureEndListener = listener;
+	}
+
 	public void setFormatter(Formatter formatter) {
 		mFormatter = formatter;
+		mShown = Integer.MIN_VALUE;
 	}
 
 	/**
@@ -141,27 +172,31 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 	 * @param end the end of the range (inclusive)
 	 */
 	public void setRange(int start, int end) {
-		mStart = start;
-		mEnd = end;
-		mCurrent = start;
+		mValue.setRange(start, end);
 		updateView();
 	}
 
 	public void setCurrent(int current) {
-		mCurrent = current;
+		mValue.setCurrent(current);
 		updateView();
 	}
 
+	/** Have {@code smaller} carry into this picker, as minutes do into hours. */
+	public void setSmaller(NumberPicker smaller) {
+		mValue.setSmaller(smaller.mValue);
+	}
+
 	/**
 	 * The speed (in milliseconds) at which the numbers will scroll
-	 * when the the +/- buttons are longpressed. Default is 300ms.
+	 * when the the +/- buttons are longpressed, to begin with; holding
+	 * them makes it faster. Default is 300ms.
 	 */
 	public void setSpeed(long speed) {
 		mSpeed = speed;
 	}
 
 	public void setStep(int step) {
-		mStep = step;
+		mValue.setStep(step);
 	}
 
 	public void onClick(View v) {
@@ -171,50 +206,31 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		} else if (R.id.decrement == v.getId()) {
 			decrement();
 		}
+		endGesture();
 	}
 
-	void increment()
-	{
-		if (mCurrent == mEnd) {
-			boolean ok = false;
-			NumberPicker np = larger;
-			while (np!=null) {
-				if (np.mCurrent < mEnd) { ok = true; break; }
-				np = np.larger;
-			}
-			if (!ok) {
-				np = smaller;
-				while (np!=null) {
-					np.changeCurrent(np.mEnd);
-					np = np.smaller;
-				}
-				return;
-			}
-			larger.increment();
-		}
-		changeCurrent(mCurrent + mStep);
+	private long repeatDelay() {
+		int halvings = Math.min(mRepeats / ACCELERATE_EVERY, 16);
+		return Math.max(MIN_SPEED, mSpeed >> halvings);
 	}
 
-	void decrement()
-	{
-		if (mCurrent == mStart) {
-			boolean ok = false;
-			NumberPicker np = larger;
-			while (np!=null) {
-				if (np.mCurrent > mStart) { ok = true; break; }
-				np = np.larger;
-			}
-			if (!ok) {
-				np = smaller;
-				while (np!=null) {
-					np.changeCurrent(np.mStart);
-					np = np.smaller;
-				}
-				return;
-			}
-			larger.decrement();
+	private void endGesture() {
+		if (mGestureEndListener != null) {
+			mGestureEndListener.onGestureEnd(this);
 		}
-		changeCurrent(mCurrent - mStep);
+	}
+
+	/** Whether a long press is repeating. */
+	public boolean isRepeating() {
+		return mIncrement || mDecrement;
+	}
+
+	void increment() {
+		mValue.increment();
+	}
+
+	void decrement() {
+		mValue.decrement();
 	}
 
 	private String formatNumber(int value) {
@@ -223,27 +239,17 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 				: String.valueOf(value);
 	}
 
-	protected void changeCurrent(int current) {
-		// Wrap around the values if we go past the start or end
-		if (current > mEnd) {
-			current = mStart;
-		} else if (current < mStart) {
-			current = mEnd;
-		}
-		mPrevious = mCurrent;
-		mCurrent = current;
-		notifyChange();
-		updateView();
-	}
-
-	protected void notifyChange() {
+	protected void notifyChange(int previous, int current) {
 		if (mListener != null) {
-			mListener.onChanged(this, mPrevious, mCurrent);
+			mListener.onChanged(this, previous, current);
 		}
 	}
 
 	protected void updateView() {
-		mText.setText(formatNumber(mCurrent));
+		int current = mValue.getCurrent();
+		if (current == mShown) return;
+		mText.setText(formatNumber(current));
+		mShown = current;
 	}
 
 	/**
@@ -257,6 +263,7 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 		 */
 		mText.clearFocus();
 
+		mRepeats = 0;
 		if (R.id.increment == v.getId()) {
 			mIncrement = true;
 			mHandler.post(mRunnable);
@@ -268,11 +275,15 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 	}
 
 	public void cancelIncrement() {
+		if (! mIncrement) return;  // a plain click ends in onClick()
 		mIncrement = false;
+		endGesture();
 	}
 
 	public void cancelDecrement() {
+		if (! mDecrement) return;
 		mDecrement = false;
+		endGesture();
 	}
 
 	private NumberPickerButton mIncrementButton;
@@ -282,6 +293,6 @@ public class NumberPicker extends LinearLayout implements OnClickListener,
 	 * @return the current value.
 	 */
 	public int getCurrent() {
-		return mCurrent;
+		return mValue.getCurrent();
 	}
 }
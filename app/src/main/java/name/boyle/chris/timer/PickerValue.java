@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+/**
+ * The value shown by one {@link NumberPicker}, and the carrying between
+ * pickers that {@link HMSPicker} links together: stepping past the end of
+ * the range carries into the next larger value, and stepping past the
+ * start borrows from it. If no larger value has room, the smaller ones go
+ * to that end of their ranges instead. Kept apart from the view so that
+ * it can be run on a plain JVM.
+ */
+public class PickerValue
+{
+	/** Told of every change, including those made by a carry. */
+	public interface Listener
+	{
+		void onChanged(PickerValue value, int oldVal, int newVal);
+	}
+
+	private int start, end, current, step = 1;
+	private PickerValue smaller, larger;
+	private Listener listener;
+
+	public void setListener(Listener listener)
+	{
+		this.listener = listener;
+	}
+
+	/** Inclusive at both ends; the value goes to the start. */
+	public void setRange(int start, int end)
+	{
+		this.start = start;
+		this.end = end;
+		current = start;
+	}
+
+	/** Set the value without telling the listener. */
+	public void setCurrent(int current)
+	{
+		this.current = current;
+	}
+
+	public int getCurrent()
+	{
+		return current;
+	}
+
+	public void setStep(int step)
+	{
+		this.step = step;
+	}
+
+	/** Make {@code smaller} carry into, and borrow from, this one. */
+	public void setSmaller(PickerValue smaller)
+	{
+		this.smaller = smaller;
+		smaller.larger = this;
+	}
+
+	public void increment()
+	{
+		if (current == end) {
+			boolean ok = false;
+			PickerValue v = larger;
+			while (v != null) {
+				if (v.current < end) { ok = true; break; }
+				v = v.larger;
+			}
+			if (! ok) {
+				v = smaller;
+				while (v != null) {
+					v.change(v.end);
+					v = v.smaller;
+				}
+				return;
+			}
+			larger.increment();
+		}
+		change(current + step);
+	}
+
+	public void decrement()
+	{
+		if (current == start) {
+			boolean ok = false;
+			PickerValue v = larger;
+			while (v != null) {
+				if (v.current > start) { ok = true; break; }
+				v = v.larger;
+			}
+			if (! ok) {
+				v = smaller;
+				while (v != null) {
+					v.change(v.start);
+					v = v.smaller;
+				}
+				return;
+			}
+			larger.decrement();
+		}
+		change(current - step);
+	}
+
+	private void change(int value)
+	{
+		// Wrap around the values if we go past the start or end
+		if (value > end) {
+			value = start;
+		} else if (value < start) {
+			value = end;
+		}
+		int previous = current;
+		current = value;
+		if (listener != null) listener.onChanged(this, previous, current);
+	}
+}
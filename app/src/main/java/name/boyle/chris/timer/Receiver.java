@@ -16,69 +16,57 @@
 
 package name.boyle.chris.timer;
 
-import android.app.Activity;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
-import android.database.Cursor;
+import android.content.pm.ApplicationInfo;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 public class Receiver extends BroadcastReceiver
 {
 	protected static final String ACTION_ALARM = "name.boyle.chris.timer.ALARM";
+	/** Logs the {@link Metrics}; ignored unless the app is debuggable. */
+	protected static final String ACTION_DUMP_METRICS = "name.boyle.chris.timer.DUMP_METRICS";
 
 	@Override
 	public void onReceive(Context context, Intent intent)
+	{
+		long start = Metrics.start();
+		try {
+			handle(context, intent);
+		} finally {
+			Metrics.end(Metrics.RECEIVE, start);
+		}
+	}
+
+	private void handle(Context context, Intent intent)
 	{
 		String action = intent.getAction();
 		if (action.equals(Intent.ACTION_BOOT_COMPLETED) || action.equals(Intent.ACTION_PACKAGE_REPLACED)) {
 			// Alarms don't survive reboots or upgrades, so restore them all
-			TimerDB db = new TimerDB(context);
-			db.open();
-			Cursor c = db.getAllEntries();
-			if (c.moveToFirst()) {
-				do {
-					Timer t = db.cursorToEntry(c);
-					if (! t.enabled) continue;
-					t.setNextAlarm(context);
-				} while (c.moveToNext());
-			}
-			c.close();
-			db.close();
+			restore(context);
 		} else if (action.equals(ACTION_ALARM)) {
 			// It's time to sound/show an alarm
 			Log.d(TimerActivity.TAG, "ACTION_ALARM: \""+intent.getData().toString()+"\"");
-			final long id;
-			try {
-				id = Long.parseLong(intent.getData().getSchemeSpecificPart());
-			} catch (NumberFormatException e) {
-				Log.e(TimerActivity.TAG, "NumberFormatException! "+e.toString());
-				return;
+			if (! AlarmScheduler.ALARM_DATA.equals(intent.getData())
+					&& ! AlarmScheduler.EXACT_DATA.equals(intent.getData())) {
+				// A per-timer repeating alarm from before AlarmScheduler
+				AlarmScheduler.cancelLegacy(context, intent.getData());
 			}
-			// We ask TimerActivity to do this (rather than say we've done it)
-			// to avoid conflicting modifications in the case where a delayed
-			// save has already been queued
-			Intent i = new Intent(TimerActivity.ACTION_RESET);
-			i.putExtra(TimerDB.KEY_ID, id);
-			Log.d(TimerActivity.TAG, "Pinging TimerActivity...");
-			context.sendOrderedBroadcast(i, null, new BroadcastReceiver() {
-				@Override
-				public void onReceive(Context context, Intent intent) {
-					int result = getResultCode();
-					if (result != Activity.RESULT_CANCELED) {
-						Log.d(TimerActivity.TAG, "TimerActivity caught the broadcast, result "+result);
-						return;  // Activity caught it
-					}
-					Log.d(TimerActivity.TAG, "TimerActivity did not catch the broadcast");
-					TimerDB db = new TimerDB(context);
-					db.open();
-					Timer t = db.getEntry(id);
-					if (t.notify(context)) db.saveEntry(t);
-					db.close();
-				}
-			}, null, Activity.RESULT_CANCELED, null, null);
-			Timer.requeryLocale(context);
+			AlarmDispatcher.dispatchDue(context, goAsync());
+		} else if (action.equals(Intent.ACTION_TIMEZONE_CHANGED)) {
+			NightWindow.zoneChanged();
+		} else if (action.equals(ACTION_DUMP_METRICS)) {
+			if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) return;
+			StringWriter s = new StringWriter();
+			Metrics.dump("", new PrintWriter(s));
+			for (String line : s.toString().split("\n")) Log.i(TimerActivity.TAG, line);
+			if (intent.getBooleanExtra("reset", false)) Metrics.reset();
 		} else if (action.equals(com.twofortyfouram.Intent.ACTION_QUERY_CONDITION)) {
 			final Bundle bundle = intent.getBundleExtra(com.twofortyfouram.Intent.EXTRA_BUNDLE);
 			if (bundle == null)
@@ -93,17 +81,56 @@ public class Receiver extends BroadcastReceiver
 			}
 			int mins = bundle.getInt(LocaleEdit.BUNDLE_EXTRA_MINS);
 			long id = bundle.getLong(LocaleEdit.BUNDLE_EXTRA_ID);
-			TimerDB db = new TimerDB(context);
-			db.open();
-			Timer t = db.getEntry(id);
-			db.close();
-			if (t == null) {
-				setResultCode(com.twofortyfouram.Intent.RESULT_CONDITION_UNKNOWN);
-			} else if (t.isLateByMins(mins) && ! t.seen) {
-				setResultCode(com.twofortyfouram.Intent.RESULT_CONDITION_SATISFIED);
-			} else {
-				setResultCode(com.twofortyfouram.Intent.RESULT_CONDITION_UNSATISFIED);
+			setResultCode(queryCondition(context, id, mins));
+		}
+	}
+
+	/**
+	 * Locale polls this often, so prefer a timer we already have in memory,
+	 * then the snapshot file, and only open the database if neither will do.
+	 */
+	private static int queryCondition(Context context, long id, int mins)
+	{
+		Timer t = TimerRepository.cached(id);
+		if (t == null) {
+			switch (ConditionSnapshot.get(context).query(id, mins, Clock.get().now())) {
+			case ConditionSnapshot.LATE_AND_UNSEEN:
+				return com.twofortyfouram.Intent.RESULT_CONDITION_SATISFIED;
+			case ConditionSnapshot.NOT_LATE_OR_SEEN:
+				return com.twofortyfouram.Intent.RESULT_CONDITION_UNSATISFIED;
+			case ConditionSnapshot.NO_TIMER:
+				return com.twofortyfouram.Intent.RESULT_CONDITION_UNKNOWN;
 			}
+			t = TimerRepository.get(context).get(id);  // snapshot is stale or missing
 		}
+		if (t == null) {
+			return com.twofortyfouram.Intent.RESULT_CONDITION_UNKNOWN;
+		} else if (t.isLateByMins(mins) && ! t.seen) {
+			return com.twofortyfouram.Intent.RESULT_CONDITION_SATISFIED;
+		} else {
+			return com.twofortyfouram.Intent.RESULT_CONDITION_UNSATISFIED;
+		}
+	}
+
+	/** Rebuild the alarm queue off the main thread, keeping the broadcast alive until done. */
+	private void restore(final Context context)
+	{
+		final PendingResult result = goAsync();
+		final WakeLocks.Hold hold = WakeLocks.get(context).acquire();
+		AlarmDispatcher.execute(new Runnable() {
+			public void run() {
+				long start = SystemClock.elapsedRealtime();
+				try {
+					int n = AlarmScheduler.get(context).rebuild(true);
+					Log.i(TimerActivity.TAG, "Restored "+n+" alarms in "
+							+(SystemClock.elapsedRealtime() - start)+"ms");
+					hold.charge();
+					TimerRepository.get(context).flush();
+				} finally {
+					hold.release();
+					result.finish();
+				}
+			}
+		});
 	}
 }
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+/**
+ * The arithmetic of when a timer goes off, kept free of the Android
+ * framework so that schedules can be simulated on a plain JVM.
+ */
+public final class Schedule
+{
+	private Schedule() {}
+
+	/** When a timer goes off next after being reset at {@code now}. */
+	static long afterReset(boolean enabled, long intervalSecs, long now)
+	{
+		return (enabled ? now : 0) + intervalSecs*1000 + 3;
+	}
+
+	static boolean isLateByMins(boolean enabled, long nextMillis, long now, int mins)
+	{
+		if (!enabled) return false;
+		long late = now - nextMillis;
+		// First clause is needed for the case where we're in the final minute and mins == 0
+		return (late >= 0) && (late/60000 >= mins);
+	}
+}
@@ -16,7 +16,6 @@
 
 package name.boyle.chris.timer;
 
-import android.app.AlarmManager;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -25,10 +24,15 @@ import android.content.Intent;
 import android.media.AudioManager;
 import android.media.RingtoneManager;
 import android.net.Uri;
-import android.os.PowerManager;
-import android.text.format.Time;
 import android.util.Log;
 
+/**
+ * One timer's settings and schedule. Instances are shared through
+ * {@link TimerRepository}'s cache, and their fields belong to the main
+ * thread: only it may change them, which is why {@link AlarmDispatcher}
+ * fires timers there. The repository's writer thread only reads them, in
+ * {@link #changes()}.
+ */
 public class Timer
 {
 	public long id = -1;
@@ -41,7 +45,90 @@ public class Timer
 	public Uri dayTone = null, nightTone = null;
 	public boolean nightNext = false,
 			dayLED = true, dayWait = true,
-			nightLED = false, nightWait = true, seen = false;
+			nightLED = false, nightWait = true, seen = false,
+			exact = false;
+	public NagPolicy nagPolicy = NagPolicy.DEFAULT;
+	private final NightWindow nightWindow = new NightWindow();
+	private final Horizon horizon = new Horizon();
+
+	/** Bits for {@link #changes()}; bit n is database column n+1. */
+	static final int CHANGED_NAME = 1, CHANGED_ENABLED = 1<<1, CHANGED_NEXT = 1<<2,
+			CHANGED_INTERVAL = 1<<3, CHANGED_DAYTONE = 1<<4, CHANGED_DAYLED = 1<<5,
+			CHANGED_DAYWAIT = 1<<6, CHANGED_NIGHTTONE = 1<<7, CHANGED_NIGHTLED = 1<<8,
+			CHANGED_NIGHTWAIT = 1<<9, CHANGED_NIGHTSTART = 1<<10, CHANGED_NIGHTSTOP = 1<<11,
+			CHANGED_NIGHTNEXT = 1<<12, CHANGED_SEEN = 1<<13, CHANGED_EXACT = 1<<14,
+			CHANGED_NAGS = 1<<15, CHANGED_ALL = (1<<16) - 1;
+
+	/** The values of the persisted fields as last read from or written to the database. */
+	static class Saved
+	{
+		String name;
+		boolean enabled;
+		long nextMillis, intervalSecs, nightStart, nightStop;
+		Uri dayTone, nightTone;
+		boolean nightNext, dayLED, dayWait, nightLED, nightWait, seen, exact;
+		NagPolicy nagPolicy;
+
+		Saved()
+		{
+		}
+
+		Saved(Saved o)
+		{
+			name = o.name;
+			enabled = o.enabled;
+			nextMillis = o.nextMillis;
+			intervalSecs = o.intervalSecs;
+			nightStart = o.nightStart;
+			nightStop = o.nightStop;
+			dayTone = o.dayTone;
+			nightTone = o.nightTone;
+			nightNext = o.nightNext;
+			dayLED = o.dayLED;
+			dayWait = o.dayWait;
+			nightLED = o.nightLED;
+			nightWait = o.nightWait;
+			seen = o.seen;
+			exact = o.exact;
+			nagPolicy = o.nagPolicy;
+		}
+	}
+
+	// What the database holds, and what is being written to it
+	private Saved saved, pending;
+
+	/**
+	 * A built notification, and the settings it was built from. The time
+	 * is one of them: {@code setLatestEventInfo} puts it in the content
+	 * view, so only reminders of the same fire can share a notification.
+	 */
+	private static class Template
+	{
+		final String text;
+		final Uri tone;
+		final boolean led;
+		final long when;
+		final Notification notification;
+
+		Template(String text, Uri tone, boolean led, long when, Notification notification)
+		{
+			this.text = text;
+			this.tone = tone;
+			this.led = led;
+			this.when = when;
+			this.notification = notification;
+		}
+
+		boolean matches(String text, Uri tone, boolean led, long when)
+		{
+			return text.equals(this.text) && equal(tone, this.tone) && led == this.led && when == this.when;
+		}
+	}
+
+	// Built on first use, and again only when what they show changes
+	private PendingIntent contentIntent;
+	private long contentIntentId = -1;
+	private Template dayTemplate, nightTemplate;
 
 	/**
 	 * {@code Intent} to ask <i>Locale</i> to re-query our conditions. Cached here so that we only have to create this object
@@ -63,57 +150,101 @@ public class Timer
 		dayTone = RingtoneManager.getDefaultUri(RingtoneManager.TYPE_ALARM);
 	}
 
-	protected void setNextAlarm(Context context)
+	/**
+	 * Take a copy of the current values, for {@link #pending()}, to be
+	 * written to the database; until {@link #committed()} is called they
+	 * don't count as saved, so if the write fails they are found again.
+	 * @return which fields differ from what was last committed (all of
+	 * them if nothing has been)
+	 */
+	int changes()
 	{
-		AlarmManager alarms = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
-		Intent i = new Intent(Receiver.ACTION_ALARM, Uri.parse("timer:"+id));
-		PendingIntent p = PendingIntent.getBroadcast(context, 0, i, 0);
-		if (enabled) {
-			alarms.setRepeating(AlarmManager.RTC_WAKEUP, nextMillis, 300000, p);  // 5 minutes
+		int changed = 0;
+		Saved s;
+		if (saved == null) {
+			s = new Saved();
+			changed = CHANGED_ALL;
 		} else {
-			alarms.cancel(p);
+			s = new Saved(saved);
 		}
+		// Each field is read once, so a change made meanwhile on another
+		// thread shows up next time rather than being lost.
+		String n = name;
+		if (! n.equals(s.name)) { changed |= CHANGED_NAME; s.name = n; }
+		boolean b = enabled;
+		if (b != s.enabled) { changed |= CHANGED_ENABLED; s.enabled = b; }
+		long l = nextMillis;
+		if (l != s.nextMillis) { changed |= CHANGED_NEXT; s.nextMillis = l; }
+		l = intervalSecs;
+		if (l != s.intervalSecs) { changed |= CHANGED_INTERVAL; s.intervalSecs = l; }
+		Uri u = dayTone;
+		if (! equal(u, s.dayTone)) { changed |= CHANGED_DAYTONE; s.dayTone = u; }
+		b = dayLED;
+		if (b != s.dayLED) { changed |= CHANGED_DAYLED; s.dayLED = b; }
+		b = dayWait;
+		if (b != s.dayWait) { changed |= CHANGED_DAYWAIT; s.dayWait = b; }
+		u = nightTone;
+		if (! equal(u, s.nightTone)) { changed |= CHANGED_NIGHTTONE; s.nightTone = u; }
+		b = nightLED;
+		if (b != s.nightLED) { changed |= CHANGED_NIGHTLED; s.nightLED = b; }
+		b = nightWait;
+		if (b != s.nightWait) { changed |= CHANGED_NIGHTWAIT; s.nightWait = b; }
+		l = nightStart;
+		if (l != s.nightStart) { changed |= CHANGED_NIGHTSTART; s.nightStart = l; }
+		l = nightStop;
+		if (l != s.nightStop) { changed |= CHANGED_NIGHTSTOP; s.nightStop = l; }
+		b = nightNext;
+		if (b != s.nightNext) { changed |= CHANGED_NIGHTNEXT; s.nightNext = b; }
+		b = seen;
+		if (b != s.seen) { changed |= CHANGED_SEEN; s.seen = b; }
+		b = exact;
+		if (b != s.exact) { changed |= CHANGED_EXACT; s.exact = b; }
+		NagPolicy p = nagPolicy;
+		if (! p.equals(s.nagPolicy)) { changed |= CHANGED_NAGS; s.nagPolicy = p; }
+		pending = s;
+		return changed;
 	}
 
-	protected void reset(Context context)
+	/** The values copied by the last {@link #changes()}. */
+	Saved pending()
 	{
-		nextMillis = (enabled ? System.currentTimeMillis() : 0) + intervalSecs*1000 + 3;
-		context.sendBroadcast(REQUEST_REQUERY);
+		return pending;
 	}
 
-	protected static long occurrence(int timeOfDay, long from, boolean forwards)
-	{
-		Time t = new Time();
-		t.set(from);
-		t.second = timeOfDay % 60;
-		timeOfDay /= 60;
-		t.minute = timeOfDay % 60;
-		timeOfDay /= 60;
-		t.hour = timeOfDay;
-		long m = t.toMillis(true);
-		if (forwards && m < from) {
-			t.monthDay++;
-			t.normalize(true);
-			m = t.toMillis(true);
-		} else if (! forwards && m > from) {
-			t.monthDay--;
-			t.normalize(true);
-			m = t.toMillis(true);
-		}
-		return m;
+	/** Note that the values from the last {@link #changes()} are in the database. */
+	void committed()
+	{
+		if (pending != null) saved = pending;
+		pending = null;
+	}
+
+	private static boolean equal(Uri a, Uri b)
+	{
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/** Upcoming fire times; worked out again only once this timer is edited or reset. */
+	public Horizon horizon()
+	{
+		return horizon.sync(enabled, nextMillis, intervalSecs, (int)nightStart, (int)nightStop,
+				nightNext, dayWait, nightWait);
+	}
+
+	protected void setNextAlarm(Context context)
+	{
+		AlarmScheduler.get(context).update(this);
+	}
+
+	protected void reset(Context context)
+	{
+		nextMillis = Schedule.afterReset(enabled, intervalSecs, Clock.get().now());
+		context.sendBroadcast(REQUEST_REQUERY);
 	}
 
 	protected boolean isNight()
 	{
-		final int forceWakeTime = ((11 * 60) + 30) * 60;
 		if (nightNext) return true;
-		long now = System.currentTimeMillis(),
-				lastNightStart = occurrence((int)nightStart, now, false),
-				nextNightStop = occurrence((int)nightStop, lastNightStart, true),
-				lastForceWake = occurrence(forceWakeTime, now, false);
-		boolean n = ! (lastNightStart <= nextMillis && (nextNightStop <= nextMillis || lastForceWake >= nextNightStop));
-		Log.d(TimerActivity.TAG, "isNight(): "+n);
-		return n;
+		return nightWindow.isNight((int)nightStart, (int)nightStop, nextMillis, Clock.get().now());
 	}
 
 	protected boolean shouldWait()
@@ -140,20 +271,38 @@ public class Timer
 		Log.d(TimerActivity.TAG, "Setting up notification");
 		NotificationManager notifications = (NotificationManager)
 				context.getSystemService(Context.NOTIFICATION_SERVICE);
-		PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
 		boolean needSave = nightNext;  // a one-time flag is about to be cleared
 		boolean isNight = isNight();
 		nightNext = false;
-		boolean useLED = isNight ? nightLED : dayLED; 
+		notifications.notify((int)id, notification(context, isNight));
+		Log.d(TimerActivity.TAG, "Notified!");
+		if (! shouldWait() && intervalSecs > 0) {
+			reset(context);
+			needSave = true;  // to save new alarm time
+			setNextAlarm(context);
+			seen = false;
+		}
+		return needSave;
+	}
+
+	/** The day or night notification for this fire, reusing the last one built if nothing it shows has changed. */
+	private synchronized Notification notification(Context context, boolean isNight)
+	{
 		String text = name.length() > 0 ? name : "Timer";
-		Notification n = new Notification(R.drawable.icon, text,
-				nextMillis);
-		// TODO: intent should lead to the right alarm
-		// TODO: intent should mark that alarm as seen
-		n.setLatestEventInfo(context, text, null, PendingIntent.getActivity(
-				context, 0, new Intent(Intent.ACTION_VIEW, Uri.parse("timer:"+id),
-				context, TimerActivity.class)
-				.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK), 0));
+		Uri tone = isNight ? nightTone : dayTone;
+		boolean useLED = isNight ? nightLED : dayLED;
+		Template t = isNight ? nightTemplate : dayTemplate;
+		if (t != null && t.matches(text, tone, useLED, nextMillis) && contentIntentId == id) return t.notification;
+		if (contentIntentId != id) {
+			// TODO: intent should lead to the right alarm
+			// TODO: intent should mark that alarm as seen
+			contentIntent = PendingIntent.getActivity(context, 0,
+					new Intent(Intent.ACTION_VIEW, Uri.parse("timer:"+id), context, TimerActivity.class)
+					.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK), 0);
+			contentIntentId = id;
+		}
+		Notification n = new Notification(R.drawable.icon, text, nextMillis);
+		n.setLatestEventInfo(context, text, null, contentIntent);
 		n.flags = Notification.FLAG_NO_CLEAR
 				| (useLED ? Notification.FLAG_SHOW_LIGHTS : 0);
 		if (useLED) {
@@ -162,30 +311,15 @@ public class Timer
 			n.ledARGB = 0xff2222ff;
 		}
 		n.audioStreamType = AudioManager.STREAM_ALARM;
-		n.sound = isNight ? nightTone : dayTone;
-		PowerManager.WakeLock wl = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Timer");
-		wl.acquire();
-		Log.d(TimerActivity.TAG, "Got wake lock");
-		notifications.notify((int)id, n);
-		Log.d(TimerActivity.TAG, "Notified!");
-		try { Thread.sleep(1000); } catch (InterruptedException e) {}  // don't really care if this is interrupted
-		Log.d(TimerActivity.TAG, "Released wake lock");
-		wl.release();
-		if (! shouldWait() && intervalSecs > 0) {
-			reset(context);
-			needSave = true;  // to save new alarm time
-			setNextAlarm(context);
-			seen = false;
-		}
-		return needSave;
+		n.sound = tone;
+		t = new Template(text, tone, useLED, nextMillis, n);
+		if (isNight) nightTemplate = t; else dayTemplate = t;
+		return n;
 	}
 
 	public boolean isLateByMins(int mins)
 	{
-		if (!enabled) return false;
-		long late = System.currentTimeMillis() - nextMillis;
-		// First clause is needed for the case where we're in the final minute and mins == 0
-		return (late >= 0) && (late/60000 >= mins);
+		return Schedule.isLateByMins(enabled, nextMillis, Clock.get().now(), mins);
 	}
 
 	public static void requeryLocale(Context c)
@@ -16,6 +16,21 @@
 
 package name.boyle.chris.timer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import android.app.Activity;
 import android.app.Dialog;
 import android.content.BroadcastReceiver;
@@ -28,6 +43,7 @@ import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -35,18 +51,27 @@ import android.view.View;
 import android.webkit.WebView;
 import android.widget.ImageButton;
 import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.ViewSwitcher;
 
 public class TimerActivity extends Activity
 {
 	public static final String TAG = "Timer";
 	public static final int DAY_TONE = 1, NIGHT_TONE = 2;
-	static final String ACTION_RESET = "name.boyle.chris.timer.RESET";
+	/** Sent by {@link AlarmDispatcher} after timers have fired and been saved. */
+	static final String ACTION_FIRED = "name.boyle.chris.timer.FIRED";
+	/** In {@link #getExternalFilesDir(String)}, for moving timers between devices. */
+	static final String EXPORT_FILE = "timers.export";
+	/** Runs exports and imports one at a time, apart from alarm dispatch so alarms don't wait for them. */
+	private static final ExecutorService transfers = Executors.newSingleThreadExecutor();
 	RingtoneManager rtm;
-	TimerDB db;
+	TimerRepository repo;
 	ViewSwitcher switcher;
 	ImageButton prevBtn, nextBtn;
-	Cursor timers;
+	/** All timers in id order, and the position of each id within that list. */
+	ArrayList<Timer> timers;
+	HashMap<Long, Integer> positions = new HashMap<Long, Integer>();
+	int position;
 	TextView positionText;
 	Handler handler = new Handler();
 
@@ -68,22 +93,25 @@ public class TimerActivity extends Activity
 		e = (Editor)findViewById(R.id.editor1);
 		e.parent = this;
 
-		db = new TimerDB(this);
-		db.open();
-		timers = db.getAllEntries();
-		long id = idFromIntent(getIntent());
-		e.timer = db.getEntry(id);
-		if (e.timer != null) {
+		repo = TimerRepository.get(this);
+		timers = repo.getAll();
+		indexTimers();
+		Integer p = positions.get(idFromIntent(getIntent()));
+		if (p != null) {
+			position = p;
+			e.timer = timers.get(position);
 			seenTimer(e.timer);
-		} else if (timers.moveToFirst()) {
-			e.timer = db.cursorToEntry(timers);
+		} else if (! timers.isEmpty()) {
+			position = 0;
+			e.timer = timers.get(position);
 		} else {
 			e.timer = new Timer();
-			delayedSave();
+			repo.save(e.timer);
+			appendTimer(e.timer);
 		}
 		e.setUIFromTimer();
 		updatePosition();
-		if (e.timer.nextMillis > System.currentTimeMillis()) e.timer.setNextAlarm(this);
+		if (e.timer.nextMillis > Clock.get().now()) e.timer.setNextAlarm(this);
 	}
 
 	@Override
@@ -93,10 +121,10 @@ public class TimerActivity extends Activity
 		Timer t = ((Editor)switcher.getCurrentView()).timer;
 		long currentId = t.id;
 		if (currentId != id) {
-			t = db.getEntry(id);
-			if (t == null) return;
-			if (needSave) save();
-			TimerDB.moveCursorTo(timers, id);
+			Integer p = positions.get(id);
+			if (p == null) return;
+			position = p;
+			t = timers.get(position);
 			updatePosition();
 			Editor newEd = (Editor)switcher.getNextView();
 			newEd.timer = t;
@@ -113,6 +141,7 @@ public class TimerActivity extends Activity
 		if (t.seen) return;
 		t.seen = true;
 		save();
+		repo.record(FireHistory.seen(t.id, Clock.get().now()));
 		Timer.requeryLocale(this);
 	}
 
@@ -128,46 +157,36 @@ public class TimerActivity extends Activity
 		}
 	}
 
-	public BroadcastReceiver resetReceiver = new BroadcastReceiver() {
+	public BroadcastReceiver firedReceiver = new BroadcastReceiver() {
 		@Override
 		public void onReceive(Context context, Intent intent) {
-			long id = intent.getLongExtra(TimerDB.KEY_ID, -1);
-			final Editor ed = (Editor)switcher.getCurrentView();
-			if (ed.timer.id != id) return;
-			if (ed.timer.notify(context)) {
-				save();
-				runOnUiThread(new Runnable() {
-					public void run() {
-						ed.setUIFromTimer();
-					}
-				});
+			// The dispatcher has already changed and saved our (shared) Timer
+			long[] ids = intent.getLongArrayExtra(AlarmDispatcher.EXTRA_IDS);
+			Editor ed = (Editor)switcher.getCurrentView();
+			if (ids == null) return;
+			for (long id : ids) {
+				if (ed.timer.id != id) continue;
+				ed.setUIFromTimer();
+				ticker.run();
+				break;
 			}
-			this.setResultCode(Activity.RESULT_OK);
 		}
 	};
 
-	@Override
-	protected void onDestroy()
-	{
-		super.onDestroy();
-		timers.close();
-		db.close();
-	}
-
 	@Override
 	protected void onPause()
 	{
 		super.onPause();
 		handler.removeCallbacks(ticker);
-		unregisterReceiver(resetReceiver);
-		if (needSave) save();
+		unregisterReceiver(firedReceiver);
+		repo.barrier();
 	}
 
 	@Override
 	protected void onResume()
 	{
 		super.onResume();
-		registerReceiver(resetReceiver, new IntentFilter(ACTION_RESET));
+		registerReceiver(firedReceiver, new IntentFilter(ACTION_FIRED));
 		ticker.run();
 	}
 
@@ -177,42 +196,20 @@ public class TimerActivity extends Activity
 			Editor e = (Editor)switcher.getCurrentView();
 			Timer t = e.timer;
 			if (! t.enabled) return;
-			e.setNextPicker();
-			e.updateNextTimes();
-			long remaining = t.nextMillis - System.currentTimeMillis();
-			handler.postDelayed(this, (remaining > 0) ? (remaining%1000 + 3) : 500);
+			if (! e.next.isAdjusting()) {  // don't fight the user's long press
+				e.setNextPicker();
+				e.updateNextTimes();
+			}
+			handler.postDelayed(this, Countdown.tickDelay(t.nextMillis, Clock.get().now()));
 		}
 	};
 
+	/** Queue the current timer to be written; repeated edits are coalesced by {@link TimerRepository}. */
 	protected void save()
 	{
-		handler.removeCallbacks(delayedSaver);
-		saveWithoutRequery();
-		int p = timers.getPosition();
-		if (p < 0) p = 0;
-		timers.requery();
-		if (! timers.moveToPosition(p)) throw new RuntimeException("cursor disappeared!");
-	}
-
-	protected void saveWithoutRequery()
-	{
-		Timer t = ((Editor)switcher.getCurrentView()).timer;
-		Log.d(TAG, "save "+t.id);
-		db.saveEntry(t);
-		needSave = false;
-	}
-
-	private Runnable delayedSaver = new Runnable() {
-		public void run() {	save(); }
-	};
-
-	private boolean needSave = false;
-	protected void delayedSave()
-	{
-		Log.d(TAG, "delayedSave");
-		needSave = true;
-		handler.removeCallbacks(delayedSaver);
-		handler.postDelayed(delayedSaver, 1000);
+		long start = Metrics.start();
+		repo.save(((Editor)switcher.getCurrentView()).timer);
+		Metrics.end(Metrics.ACTIVITY_SAVE, start);
 	}
 
 	protected void flip(boolean right)
@@ -224,13 +221,13 @@ public class TimerActivity extends Activity
 
 	ImageButton.OnClickListener prevNextListener = new ImageButton.OnClickListener() {
 		public void onClick(View v) {
-			if (needSave) save();
 			boolean isNext = v == nextBtn;
-			boolean ok = isNext ? timers.moveToNext() : timers.moveToPrevious();
+			int p = position + (isNext ? 1 : -1);
+			if (p < 0 || p >= timers.size()) return;
+			position = p;
 			updatePosition();
-			if (!ok) return;
 			Editor newEd = (Editor)switcher.getNextView();
-			newEd.timer = db.cursorToEntry(timers);
+			newEd.timer = timers.get(position);
 			newEd.setUIFromTimer();
 			flip(isNext);
 			ticker.run();
@@ -239,15 +236,11 @@ public class TimerActivity extends Activity
 
 	protected void addTimer()
 	{
-		if (needSave) save();
 		Editor newEd = (Editor)switcher.getNextView();
 		newEd.timer = new Timer();
 		newEd.setUIFromTimer();
-		db.saveEntry(newEd.timer);
-		long id = newEd.timer.id;
-		timers.requery();
-		timers.moveToFirst();
-		while (timers.getLong(TimerDB.COL_ID) != id && timers.moveToNext()) {}
+		repo.save(newEd.timer);
+		appendTimer(newEd.timer);
 		updatePosition();
 		flip(true);
 		ticker.run();
@@ -255,18 +248,19 @@ public class TimerActivity extends Activity
 
 	protected void removeTimer()
 	{
-		handler.removeCallbacks(delayedSaver);
 		Editor e = (Editor)switcher.getCurrentView();
 		e.timer.enabled = false;
 		e.timer.setNextAlarm(this);
 		e.timer.notify(this);
-		boolean right = timers.getPosition() == 0;
-		db.removeEntry(timers.getLong(TimerDB.COL_ID));
-		timers.requery();
-		timers.moveToFirst();
+		boolean right = position == 0;
+		repo.remove(e.timer.id);
+		positions.remove(e.timer.id);
+		timers.remove(position);
+		for (int i = position; i < timers.size(); i++) positions.put(timers.get(i).id, i);
+		position = 0;
 		updatePosition();
 		Editor newEd = (Editor)switcher.getNextView();
-		newEd.timer = db.cursorToEntry(timers);
+		newEd.timer = timers.get(position);
 		newEd.setUIFromTimer();
 		flip(right);
 		ticker.run();
@@ -282,12 +276,111 @@ public class TimerActivity extends Activity
 		((Editor)switcher.getCurrentView()).setTone(isNight, uri);
 	}
 
+	private void indexTimers()
+	{
+		positions.clear();
+		for (int i = 0; i < timers.size(); i++) positions.put(timers.get(i).id, i);
+	}
+
+	/**
+	 * Pick up timers added behind our back, staying on the current one.
+	 * The repository may have dropped the instances we had, so the editor
+	 * is moved onto the one it has now.
+	 */
+	private void reloadTimers()
+	{
+		Editor e = (Editor)switcher.getCurrentView();
+		timers = repo.getAll();
+		indexTimers();
+		Integer p = positions.get(e.timer.id);
+		if (p != null) {
+			position = p;
+			e.timer = timers.get(position);
+			e.setUIFromTimer();
+		}
+		updatePosition();
+		ticker.run();
+	}
+
+	/** Copy timers to or from {@link #EXPORT_FILE}, in the background. */
+	private void transferTimers(final boolean export)
+	{
+		File dir = getExternalFilesDir(null);
+		if (dir == null) {
+			Toast.makeText(this, "Storage is not available", Toast.LENGTH_SHORT).show();
+			return;
+		}
+		final File file = new File(dir, EXPORT_FILE);
+		final Context app = getApplicationContext();
+		transfers.execute(new Runnable() {
+			public void run() {
+				String result;
+				try {
+					long start = SystemClock.elapsedRealtime();
+					int n = export ? exportTo(file) : importFrom(app, file);
+					result = (export ? "Exported " : "Imported ") + n + " timers";
+					Log.i(TAG, result + " in " + (SystemClock.elapsedRealtime() - start) + "ms");
+				} catch (IOException e) {
+					Log.e(TAG, "Transfer failed", e);
+					result = (export ? "Export" : "Import") + " failed: " + e.getMessage();
+				}
+				final String message = result;
+				handler.post(new Runnable() {
+					public void run() {
+						if (! export) reloadTimers();
+						Toast.makeText(app, message, Toast.LENGTH_LONG).show();
+					}
+				});
+			}
+		});
+	}
+
+	private int exportTo(File file) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			return repo.exportTimers(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	private int importFrom(Context context, File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try {
+			return repo.importTimers(context, in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/** New timers have the highest id, so they always go on the end. */
+	private void appendTimer(Timer t)
+	{
+		timers.add(t);
+		position = timers.size() - 1;
+		positions.put(t.id, position);
+	}
+
 	protected void updatePosition()
 	{
-		int p = timers.getPosition(), c = timers.getCount();
+		int p = position, c = timers.size();
 		positionText.setText(String.format("%d/%d", p+1, c));
 		prevBtn.setEnabled(p > 0);
 		nextBtn.setEnabled(p < c - 1);
+		prefetchTones(p - 1);
+		prefetchTones(p + 1);
+	}
+
+	/** Have the neighbours' tone titles ready before the user flips to them. */
+	private void prefetchTones(int p)
+	{
+		if (p < 0 || p >= timers.size()) return;
+		Timer t = timers.get(p);
+		ToneTitles titles = ToneTitles.get(this);
+		titles.prefetch(t.dayTone);
+		titles.prefetch(t.nightTone);
 	}
 
 	@Override
@@ -302,7 +395,7 @@ public class TimerActivity extends Activity
 	public boolean onPrepareOptionsMenu(Menu menu)
 	{
 		super.onPrepareOptionsMenu(menu);
-		menu.findItem(R.id.remove).setEnabled(timers != null && timers.getCount() > 1);
+		menu.findItem(R.id.remove).setEnabled(timers != null && timers.size() > 1);
 		return true;
 	}
 
@@ -312,6 +405,8 @@ public class TimerActivity extends Activity
 		switch (item.getItemId()) {
 		case R.id.add: addTimer(); break;
 		case R.id.remove: removeTimer(); break;
+		case R.id.exportTimers: transferTimers(true); break;
+		case R.id.importTimers: transferTimers(false); break;
 		case R.id.help:
 			final Dialog d = new Dialog(this, android.R.style.Theme);
 			final WebView wv = new WebView(this);
@@ -324,6 +419,30 @@ public class TimerActivity extends Activity
 		return super.onOptionsItemSelected(item);
 	}
 
+	/** Shown by {@code dumpsys activity}; see {@link Metrics}. */
+	@Override
+	public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args)
+	{
+		super.dump(prefix, fd, writer, args);
+		Metrics.dump(prefix, writer);
+		writer.print(prefix);
+		writer.println("Alarm delivery:");
+		for (Timer t : timers) {
+			writer.print(prefix);
+			writer.println("  timer " + t.id + ": " + repo.db().getLateness(t.id));
+		}
+		writer.print(prefix);
+		writer.println("Wake lock ms by timer, today:");
+		Cursor c = repo.db().getWakeMillis(WakeLocks.localDay(Clock.get().now()));
+		while (c.moveToNext()) {
+			long id = c.getLong(TimerDB.WAKE_COL_TIMER);
+			writer.print(prefix);
+			writer.println("  " + (id == WakeLocks.NO_TIMER ? "other" : "timer " + id) + ": "
+					+ c.getLong(TimerDB.WAKE_COL_MILLIS));
+		}
+		c.close();
+	}
+
 	@Override
 	public void onConfigurationChanged(Configuration newConfig)
 	{
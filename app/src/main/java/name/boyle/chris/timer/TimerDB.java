@@ -16,22 +16,29 @@
 
 package name.boyle.chris.timer;
 
-import android.content.ContentValues;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteDatabase.CursorFactory;
 import android.net.Uri;
 import android.util.Log;
+import android.util.SparseArray;
 
 public class TimerDB
 {
 	private static final String TAG = "TimerDB";
 	private static final String DB_NAME = "timer.db";
 	private static final String DB_TABLE = "timers";
-	private static final int DB_VERSION = 2;
+	private static final int DB_VERSION = 9;
 
 	// v1
 	public static final String KEY_ID = "_id";
@@ -65,6 +72,12 @@ public class TimerDB
 	// v2
 	public static final String KEY_SEEN = "seen";
 	public static final int    COL_SEEN = 14;
+	// v5
+	public static final String KEY_EXACT = "exact";
+	public static final int    COL_EXACT = 15;
+	// v8: a NagPolicy; null means NagPolicy.DEFAULT
+	public static final String KEY_NAGS = "nags";
+	public static final int    COL_NAGS = 16;
 
 	private static final String DB_CREATE = "create table " + DB_TABLE + " (" +
 			KEY_ID + " integer primary key autoincrement, " +
@@ -81,38 +94,184 @@ public class TimerDB
 			KEY_NIGHTSTART + " integer not null, " +
 			KEY_NIGHTSTOP + " integer not null, " +
 			KEY_NIGHTNEXT + " integer not null, " +
-			KEY_SEEN + " integer not null)";
-
-	public ContentValues toContentVals(Timer t)
-	{
-		ContentValues c = new ContentValues();
-		c.put(KEY_NAME, t.name);
-		c.put(KEY_ENABLED, t.enabled);
-		c.put(KEY_NEXT, t.nextMillis);
-		c.put(KEY_INTERVAL, t.intervalSecs);
-		c.put(KEY_DAYTONE, t.dayTone == null ? null : t.dayTone.toString());
-		c.put(KEY_DAYLED, t.dayLED);
-		c.put(KEY_DAYWAIT, t.dayWait);
-		c.put(KEY_NIGHTTONE, t.nightTone == null ? null : t.nightTone.toString());
-		c.put(KEY_NIGHTLED, t.nightLED);
-		c.put(KEY_NIGHTWAIT, t.nightWait);
-		c.put(KEY_NIGHTSTART, t.nightStart);
-		c.put(KEY_NIGHTSTOP, t.nightStop);
-		c.put(KEY_NIGHTNEXT, t.nightNext);
-		c.put(KEY_SEEN, t.seen);
-		return c;
-	}
-
-	public Timer getEntry(long id)
-	{
-		Cursor c = db.query(DB_TABLE, null, KEY_ID+"="+id, null, null, null, null);
-		if (! c.moveToFirst()) {
+			KEY_SEEN + " integer not null, " +
+			KEY_EXACT + " integer not null default 0, " +
+			KEY_NAGS + " text)";
+	// columns of findByName()
+	public static final int    NAME_COL_ID = 0;
+	public static final int    NAME_COL_NAME = 1;
+	// columns of getEnabledSchedules()
+	public static final int    DUE_COL_ID = 0;
+	public static final int    DUE_COL_NEXT = 1;
+	public static final int    DUE_COL_EXACT = 2;
+	public static final int    DUE_COL_NAGS = 3;
+	public static final int    DUE_COL_FIRED = 4;
+	// v3: serves getEnabledSchedules(); v9: without seen, which nothing looks up, so
+	// marking a timer seen doesn't have to update it
+	private static final String DB_CREATE_DUE_INDEX = "create index timers_due on " + DB_TABLE +
+			" (" + KEY_ENABLED + ", " + KEY_NEXT + ")";
+	// v4: fire history; _id is a slot, reused once seq has gone round FireHistory.MAX_RECORDS
+	private static final String HISTORY_TABLE = "history";
+	public static final String KEY_SEQ = "seq";
+	public static final String KEY_TIMER = "timer";
+	public static final String KEY_SCHEDULED = "scheduled";
+	public static final String KEY_DELIVERED = "delivered";
+	public static final String KEY_NIGHT = "night";
+	public static final String KEY_SEEN_AT = "seenAt";
+	public static final String KEY_RESET_AT = "resetAt";
+	private static final String DB_CREATE_HISTORY = "create table " + HISTORY_TABLE + " (" +
+			KEY_ID + " integer primary key, " +
+			KEY_SEQ + " integer not null, " +
+			KEY_TIMER + " integer not null, " +
+			KEY_SCHEDULED + " integer not null, " +
+			KEY_DELIVERED + " integer not null, " +
+			KEY_NIGHT + " integer not null, " +
+			KEY_SEEN_AT + " integer not null default 0, " +
+			KEY_RESET_AT + " integer not null default 0)";
+	private static final String DB_CREATE_HISTORY_INDEX = "create index history_timer on " + HISTORY_TABLE +
+			" (" + KEY_TIMER + ", " + KEY_SCHEDULED + ")";
+	// v6: for the Locale plugin's timer picker, see findByName()
+	private static final String DB_CREATE_NAME_INDEX = "create index timers_name on " + DB_TABLE +
+			" (" + KEY_NAME + " collate nocase, " + KEY_ID + ")";
+	// v7: how long the wake lock was held for each timer, per local day
+	private static final String WAKE_TABLE = "wake_time";
+	public static final String KEY_DAY = "day";
+	public static final String KEY_MILLIS = "millis";
+	private static final String DB_CREATE_WAKE = "create table " + WAKE_TABLE + " (" +
+			KEY_DAY + " integer not null, " +
+			KEY_TIMER + " integer not null, " +
+			KEY_MILLIS + " integer not null, " +
+			"primary key (" + KEY_DAY + ", " + KEY_TIMER + "))";
+	/** Days of wake lock accounting to keep. */
+	static final int WAKE_DAYS_KEPT = 60;
+	// columns of getWakeMillis()
+	public static final int    WAKE_COL_TIMER = 0;
+	public static final int    WAKE_COL_MILLIS = 1;
+
+	private static final String COLUMNS_EXCEPT_ID = KEY_NAME + ", " + KEY_ENABLED + ", " +
+			KEY_NEXT + ", " + KEY_INTERVAL + ", " + KEY_DAYTONE + ", " + KEY_DAYLED + ", " +
+			KEY_DAYWAIT + ", " + KEY_NIGHTTONE + ", " + KEY_NIGHTLED + ", " + KEY_NIGHTWAIT + ", " +
+			KEY_NIGHTSTART + ", " + KEY_NIGHTSTOP + ", " + KEY_NIGHTNEXT + ", " + KEY_SEEN + ", " + KEY_EXACT + ", " +
+			KEY_NAGS;
+	private static final String SQL_INSERT = "insert into " + DB_TABLE + " (" + COLUMNS_EXCEPT_ID +
+			") values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String SQL_UPDATE = "update " + DB_TABLE + " set " +
+			COLUMNS_EXCEPT_ID.replace(",", " = ?,") + " = ? where " + KEY_ID + " = ?";
+	private static final String SQL_SELECT_BY_ID = "select * from " + DB_TABLE + " where " + KEY_ID + " = ?";
+	// Whether each alarm has fired is looked up in history_timer
+	private static final String SQL_ENABLED_SCHEDULES = "select " + KEY_ID + ", " + KEY_NEXT + ", " + KEY_EXACT + ", " + KEY_NAGS +
+			", exists (select 1 from " + HISTORY_TABLE + " h where h." + KEY_TIMER + " = " + DB_TABLE + "." + KEY_ID +
+			" and h." + KEY_SCHEDULED + " = " + DB_TABLE + "." + KEY_NEXT + ")" +
+			" from " + DB_TABLE + " where " + KEY_ENABLED + " = 1 order by " + KEY_NEXT;
+	private static final String SQL_HISTORY_NEXT_SEQ = "select ifnull(max(" + KEY_SEQ + "), -1) + 1 from " +
+			HISTORY_TABLE;
+	// Nags re-deliver the same scheduled time; only the first delivery counts
+	private static final String SQL_HISTORY_FIRED = "insert or replace into " + HISTORY_TABLE + " (" +
+			KEY_ID + ", " + KEY_SEQ + ", " + KEY_TIMER + ", " + KEY_SCHEDULED + ", " + KEY_DELIVERED + ", " +
+			KEY_NIGHT + ") select ?, ?, ?, ?, ?, ? where not exists (select 1 from " + HISTORY_TABLE +
+			" where " + KEY_TIMER + " = ? and " + KEY_SCHEDULED + " = ?)";
+	private static final String SQL_HISTORY_LATEST = " where " + KEY_ID + " = (select " + KEY_ID + " from " +
+			HISTORY_TABLE + " where " + KEY_TIMER + " = ? order by " + KEY_SEQ + " desc limit 1) and ";
+	private static final String SQL_HISTORY_SEEN = "update " + HISTORY_TABLE + " set " + KEY_SEEN_AT + " = ?" +
+			SQL_HISTORY_LATEST + KEY_SEEN_AT + " = 0";
+	private static final String SQL_HISTORY_RESET = "update " + HISTORY_TABLE + " set " + KEY_RESET_AT + " = ?" +
+			SQL_HISTORY_LATEST + KEY_RESET_AT + " = 0";
+	private static final String SQL_LATENESS = "select " + KEY_DELIVERED + " - " + KEY_SCHEDULED + " as late from " +
+			HISTORY_TABLE + " where " + KEY_TIMER + " = ? order by late";
+	private static final String SQL_BY_NAME = "select " + KEY_ID + ", " + KEY_NAME + " from " + DB_TABLE +
+			" order by " + KEY_NAME + " collate nocase, " + KEY_ID + " limit ? offset ?";
+	// A range rather than LIKE, so the index is used however old SQLite is
+	private static final String SQL_BY_NAME_PREFIX = "select " + KEY_ID + ", " + KEY_NAME + " from " + DB_TABLE +
+			" where " + KEY_NAME + " >= ? collate nocase and " + KEY_NAME + " < ? collate nocase" +
+			" order by " + KEY_NAME + " collate nocase, " + KEY_ID + " limit ? offset ?";
+	private static final String SQL_WAKE_ROW = "insert or ignore into " + WAKE_TABLE + " (" + KEY_DAY + ", " +
+			KEY_TIMER + ", " + KEY_MILLIS + ") values (?, ?, 0)";
+	private static final String SQL_WAKE_ADD = "update " + WAKE_TABLE + " set " + KEY_MILLIS + " = " + KEY_MILLIS +
+			" + ? where " + KEY_DAY + " = ? and " + KEY_TIMER + " = ?";
+	private static final String SQL_WAKE_PRUNE = "delete from " + WAKE_TABLE + " where " + KEY_DAY + " < ?";
+	private static final String SQL_WAKE_BY_DAY = "select " + KEY_TIMER + ", " + KEY_MILLIS + " from " + WAKE_TABLE +
+			" where " + KEY_DAY + " = ? order by " + KEY_TIMER;
+	/** Number of columns bound by {@link #bindEntry(SQLiteStatement, Timer.Saved)}. */
+	private static final int BOUND_COLUMNS = 16;
+	/** Columns other than the id, in {@link Timer#changes()} bit order. */
+	private static final String[] KEYS_EXCEPT_ID = { KEY_NAME, KEY_ENABLED, KEY_NEXT, KEY_INTERVAL,
+			KEY_DAYTONE, KEY_DAYLED, KEY_DAYWAIT, KEY_NIGHTTONE, KEY_NIGHTLED, KEY_NIGHTWAIT,
+			KEY_NIGHTSTART, KEY_NIGHTSTOP, KEY_NIGHTNEXT, KEY_SEEN, KEY_EXACT, KEY_NAGS };
+	/** Start of an export stream, followed by {@link #EXPORT_VERSION}. */
+	static final int EXPORT_MAGIC = 0x546d7258;  // "TmrX"
+	static final int EXPORT_VERSION = 2;
+	/** Timers imported per transaction, so other reads and writes can get in between. */
+	static final int IMPORT_CHUNK = 50;
+	/** Most partial UPDATE statements to keep compiled; only a few combinations are common. */
+	private static final int MAX_PARTIAL_UPDATES = 16;
+
+	/**
+	 * Bind every column except the id, in the order used by {@link #SQL_INSERT}
+	 * and {@link #SQL_UPDATE}. This avoids building a {@code ContentValues}
+	 * (and boxing all its values) on every save; see TimerSaveBenchmark.
+	 */
+	private static void bindEntry(SQLiteStatement s, Timer.Saved v)
+	{
+		for (int col = 0; col < BOUND_COLUMNS; col++) bindColumn(s, col + 1, v, col);
+	}
+
+	/** @param col column number, not counting the id; also the bit number in {@link Timer#changes()} */
+	private static void bindColumn(SQLiteStatement s, int index, Timer.Saved v, int col)
+	{
+		switch (col) {
+		case 0: s.bindString(index, v.name); break;
+		case 1: s.bindLong(index, v.enabled ? 1 : 0); break;
+		case 2: s.bindLong(index, v.nextMillis); break;
+		case 3: s.bindLong(index, v.intervalSecs); break;
+		case 4: bindUri(s, index, v.dayTone); break;
+		case 5: s.bindLong(index, v.dayLED ? 1 : 0); break;
+		case 6: s.bindLong(index, v.dayWait ? 1 : 0); break;
+		case 7: bindUri(s, index, v.nightTone); break;
+		case 8: s.bindLong(index, v.nightLED ? 1 : 0); break;
+		case 9: s.bindLong(index, v.nightWait ? 1 : 0); break;
+		case 10: s.bindLong(index, v.nightStart); break;
+		case 11: s.bindLong(index, v.nightStop); break;
+		case 12: s.bindLong(index, v.nightNext ? 1 : 0); break;
+		case 13: s.bindLong(index, v.seen ? 1 : 0); break;
+		case 14: s.bindLong(index, v.exact ? 1 : 0); break;
+		case 15: s.bindString(index, v.nagPolicy.toString()); break;
+		}
+	}
+
+	/** An UPDATE of just the columns in {@code changed}, compiled once per combination where possible. */
+	private SQLiteStatement partialUpdate(int changed)
+	{
+		SQLiteStatement s = partialUpdates.get(changed);
+		if (s != null) return s;
+		StringBuilder sql = new StringBuilder("update ").append(DB_TABLE).append(" set ");
+		String sep = "";
+		for (int col = 0; col < BOUND_COLUMNS; col++) {
+			if ((changed & (1 << col)) == 0) continue;
+			sql.append(sep).append(KEYS_EXCEPT_ID[col]).append(" = ?");
+			sep = ", ";
+		}
+		sql.append(" where ").append(KEY_ID).append(" = ?");
+		s = db.compileStatement(sql.toString());
+		if (partialUpdates.size() < MAX_PARTIAL_UPDATES) partialUpdates.put(changed, s);
+		return s;
+	}
+
+	private static void bindUri(SQLiteStatement s, int index, Uri u)
+	{
+		if (u == null) s.bindNull(index); else s.bindString(index, u.toString());
+	}
+
+	public synchronized Timer getEntry(long id)
+	{
+		long start = Metrics.start();
+		idArg[0] = Long.toString(id);
+		Cursor c = db.rawQuery(SQL_SELECT_BY_ID, idArg);
+		try {
+			return c.moveToFirst() ? cursorToEntry(c) : null;
+		} finally {
 			c.close();
-			return null;
+			Metrics.end(Metrics.DB_GET, start);
 		}
-		Timer t = cursorToEntry(c);
-		c.close();
-		return t;
 	}
 
 	public Timer cursorToEntry(Cursor c)
@@ -134,6 +293,10 @@ public class TimerDB
 		t.nightStop = c.getInt(COL_NIGHTSTOP);
 		t.nightNext = c.getInt(COL_NIGHTNEXT) > 0;
 		t.seen = c.getInt(COL_SEEN) > 0;
+		t.exact = c.getInt(COL_EXACT) > 0;
+		t.nagPolicy = NagPolicy.parse(c.getString(COL_NAGS));
+		t.changes();  // what we just read is what's saved
+		t.committed();
 		return t;
 	}
 
@@ -146,6 +309,10 @@ public class TimerDB
 	private SQLiteDatabase db;
 	private final Context context;
 	private Helper helper;
+	private SQLiteStatement insertStmt, updateStmt, historyFiredStmt, historySeenStmt, historyResetStmt, wakeRowStmt, wakeAddStmt;
+	private long historySeq = -1;
+	private final String[] idArg = new String[1];
+	private final SparseArray<SQLiteStatement> partialUpdates = new SparseArray<SQLiteStatement>();
 
 	public TimerDB(Context _context)
 	{
@@ -159,17 +326,285 @@ public class TimerDB
 		return this;
 	}
 
-	public void close()
+	public synchronized void close()
 	{
+		if (insertStmt != null) insertStmt.close();
+		if (updateStmt != null) updateStmt.close();
+		if (historyFiredStmt != null) historyFiredStmt.close();
+		if (historySeenStmt != null) historySeenStmt.close();
+		if (historyResetStmt != null) historyResetStmt.close();
+		if (wakeRowStmt != null) wakeRowStmt.close();
+		if (wakeAddStmt != null) wakeAddStmt.close();
+		insertStmt = updateStmt = historyFiredStmt = historySeenStmt = historyResetStmt = null;
+		wakeRowStmt = wakeAddStmt = null;
+		for (int i = 0; i < partialUpdates.size(); i++) partialUpdates.valueAt(i).close();
+		partialUpdates.clear();
 		db.close();
 	}
 
-	public long saveEntry(Timer t)
+	/**
+	 * Insert a new timer, or update only the columns that have changed since
+	 * it was loaded or last saved.
+	 * @return the new id, or the number of rows updated
+	 */
+	public synchronized long saveEntry(Timer t)
+	{
+		long written = writeEntry(t);
+		t.committed();
+		return written;
+	}
+
+	/** As {@link #saveEntry(Timer)}, but the caller commits the timer once the transaction has. */
+	private long writeEntry(Timer t)
+	{
+		long start = Metrics.start();
+		try {
+			return writeChanges(t);
+		} finally {
+			Metrics.end(Metrics.DB_SAVE, start);
+		}
+	}
+
+	private long writeChanges(Timer t)
+	{
+		int changed = t.changes();
+		Timer.Saved v = t.pending();
+		if (t.id < 0) {
+			if (insertStmt == null) insertStmt = db.compileStatement(SQL_INSERT);
+			bindEntry(insertStmt, v);
+			return (t.id = insertStmt.executeInsert());
+		} else if (changed == 0) {
+			return 0;
+		} else if (changed == Timer.CHANGED_ALL) {
+			if (updateStmt == null) updateStmt = db.compileStatement(SQL_UPDATE);
+			bindEntry(updateStmt, v);
+			updateStmt.bindLong(BOUND_COLUMNS + 1, t.id);
+			return updateStmt.executeUpdateDelete();
+		} else {
+			SQLiteStatement s = partialUpdate(changed);
+			int index = 1;
+			for (int col = 0; col < BOUND_COLUMNS; col++) {
+				if ((changed & (1 << col)) != 0) bindColumn(s, index++, v, col);
+			}
+			s.bindLong(index, t.id);
+			try {
+				return s.executeUpdateDelete();
+			} finally {
+				if (partialUpdates.get(changed) != s) s.close();
+			}
+		}
+	}
+
+	/**
+	 * Save several timers, remove others, append to the history and add up
+	 * wake lock time, in one transaction. If this throws, none of it was
+	 * written, and the timers' changes are still there to be saved again.
+	 * @param wakeMillis {day, timer id, milliseconds} to add
+	 */
+	public synchronized void writeEntries(Iterable<Timer> timers, Iterable<Long> removals,
+			Iterable<FireHistory.Event> events, Iterable<long[]> wakeMillis)
+	{
+		long start = Metrics.start();
+		db.beginTransaction();
+		try {
+			for (Timer t : timers) writeEntry(t);
+			for (long id : removals) removeEntry(id);
+			for (FireHistory.Event e : events) recordEvent(e);
+			long lastDay = -1;
+			for (long[] w : wakeMillis) {
+				addWakeMillis(w[0], w[1], w[2]);
+				lastDay = Math.max(lastDay, w[0]);
+			}
+			if (lastDay >= 0) db.execSQL(SQL_WAKE_PRUNE, new Object[] { lastDay - WAKE_DAYS_KEPT });
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+			Metrics.end(Metrics.DB_WRITE, start);
+		}
+		for (Timer t : timers) t.committed();
+	}
+
+	private void recordEvent(FireHistory.Event e)
+	{
+		switch (e.type) {
+		case FireHistory.FIRED:
+			if (historyFiredStmt == null) historyFiredStmt = db.compileStatement(SQL_HISTORY_FIRED);
+			if (historySeq < 0) historySeq = DatabaseUtils.longForQuery(db, SQL_HISTORY_NEXT_SEQ, null);
+			SQLiteStatement s = historyFiredStmt;
+			s.bindLong(1, historySeq % FireHistory.MAX_RECORDS);
+			s.bindLong(2, historySeq);
+			s.bindLong(3, e.timer);
+			s.bindLong(4, e.scheduled);
+			s.bindLong(5, e.when);
+			s.bindLong(6, e.night ? 1 : 0);
+			s.bindLong(7, e.timer);
+			s.bindLong(8, e.scheduled);
+			if (s.executeInsert() != -1) historySeq++;
+			break;
+		case FireHistory.SEEN:
+			if (historySeenStmt == null) historySeenStmt = db.compileStatement(SQL_HISTORY_SEEN);
+			historySeenStmt.bindLong(1, e.when);
+			historySeenStmt.bindLong(2, e.timer);
+			historySeenStmt.executeUpdateDelete();
+			break;
+		case FireHistory.RESET:
+			if (historyResetStmt == null) historyResetStmt = db.compileStatement(SQL_HISTORY_RESET);
+			historyResetStmt.bindLong(1, e.when);
+			historyResetStmt.bindLong(2, e.timer);
+			historyResetStmt.executeUpdateDelete();
+			break;
+		}
+	}
+
+	private void addWakeMillis(long day, long timer, long millis)
 	{
-		if (t.id < 0) 
-			return (t.id = db.insert(DB_TABLE, null, toContentVals(t)));
-		else
-			return db.update(DB_TABLE, toContentVals(t), KEY_ID+"="+t.id, null);
+		if (wakeRowStmt == null) wakeRowStmt = db.compileStatement(SQL_WAKE_ROW);
+		if (wakeAddStmt == null) wakeAddStmt = db.compileStatement(SQL_WAKE_ADD);
+		wakeRowStmt.bindLong(1, day);
+		wakeRowStmt.bindLong(2, timer);
+		wakeRowStmt.executeInsert();
+		wakeAddStmt.bindLong(1, millis);
+		wakeAddStmt.bindLong(2, day);
+		wakeAddStmt.bindLong(3, timer);
+		wakeAddStmt.executeUpdateDelete();
+	}
+
+	/**
+	 * Wake lock time per timer on a local day (see {@link WakeLocks#localDay(long)}).
+	 * Columns are {@link #WAKE_COL_TIMER} and {@link #WAKE_COL_MILLIS}.
+	 */
+	public synchronized Cursor getWakeMillis(long day)
+	{
+		return db.rawQuery(SQL_WAKE_BY_DAY, new String[] { Long.toString(day) });
+	}
+
+	/** How late each recorded fire of a timer was delivered, in milliseconds. */
+	public synchronized FireHistory.Lateness getLateness(long timer)
+	{
+		idArg[0] = Long.toString(timer);
+		Cursor c = db.rawQuery(SQL_LATENESS, idArg);
+		long[] late = new long[c.getCount()];
+		for (int i = 0; c.moveToNext(); i++) late[i] = c.getLong(0);
+		c.close();
+		return new FireHistory.Lateness(late);
+	}
+
+	/**
+	 * Write every timer to {@code out}, one row at a time. Ids are not
+	 * included; imported timers get new ones.
+	 * @return the number of timers written
+	 */
+	public synchronized int exportEntries(DataOutputStream out) throws IOException
+	{
+		out.writeInt(EXPORT_MAGIC);
+		out.writeShort(EXPORT_VERSION);
+		Cursor c = getAllEntries();
+		int n = 0;
+		try {
+			while (c.moveToNext()) {
+				out.writeBoolean(true);  // another row follows
+				out.writeUTF(c.getString(COL_NAME));
+				out.writeBoolean(c.getInt(COL_ENABLED) > 0);
+				out.writeLong(c.getLong(COL_NEXT));
+				out.writeLong(c.getLong(COL_INTERVAL));
+				writeNullableUTF(out, c.getString(COL_DAYTONE));
+				out.writeBoolean(c.getInt(COL_DAYLED) > 0);
+				out.writeBoolean(c.getInt(COL_DAYWAIT) > 0);
+				writeNullableUTF(out, c.getString(COL_NIGHTTONE));
+				out.writeBoolean(c.getInt(COL_NIGHTLED) > 0);
+				out.writeBoolean(c.getInt(COL_NIGHTWAIT) > 0);
+				out.writeInt(c.getInt(COL_NIGHTSTART));
+				out.writeInt(c.getInt(COL_NIGHTSTOP));
+				out.writeBoolean(c.getInt(COL_NIGHTNEXT) > 0);
+				out.writeBoolean(c.getInt(COL_SEEN) > 0);
+				out.writeBoolean(c.getInt(COL_EXACT) > 0);
+				writeNullableUTF(out, c.getString(COL_NAGS));  // since version 2
+				n++;
+			}
+		} finally {
+			c.close();
+		}
+		out.writeBoolean(false);
+		return n;
+	}
+
+	/**
+	 * Add every timer in a stream written by {@link #exportEntries(DataOutputStream)}.
+	 * The whole stream is read first, so if it is bad, nothing is imported.
+	 * The rows then go in {@link #IMPORT_CHUNK} at a time, each lot in its
+	 * own transaction, and this object is only locked while one is being
+	 * written. Alarms are not touched; rebuild them afterwards.
+	 * @return the number of timers imported
+	 */
+	public int importEntries(DataInputStream in) throws IOException
+	{
+		if (in.readInt() != EXPORT_MAGIC) throw new IOException("Not a timer export");
+		int version = in.readShort();
+		if (version > EXPORT_VERSION) throw new IOException("Export version "+version+" is too new");
+		ArrayList<Timer.Saved> rows = new ArrayList<Timer.Saved>();
+		while (in.readBoolean()) {
+			Timer.Saved v = new Timer.Saved();
+			v.name = in.readUTF();
+			v.enabled = in.readBoolean();
+			v.nextMillis = in.readLong();
+			v.intervalSecs = in.readLong();
+			v.dayTone = uriOrNull(readNullableUTF(in));
+			v.dayLED = in.readBoolean();
+			v.dayWait = in.readBoolean();
+			v.nightTone = uriOrNull(readNullableUTF(in));
+			v.nightLED = in.readBoolean();
+			v.nightWait = in.readBoolean();
+			v.nightStart = in.readInt();
+			v.nightStop = in.readInt();
+			v.nightNext = in.readBoolean();
+			v.seen = in.readBoolean();
+			v.exact = in.readBoolean();
+			v.nagPolicy = version >= 2 ? NagPolicy.parse(readNullableUTF(in)) : NagPolicy.DEFAULT;
+			rows.add(v);
+		}
+		for (int i = 0; i < rows.size(); i += IMPORT_CHUNK) {
+			insertEntries(rows, i, Math.min(i + IMPORT_CHUNK, rows.size()));
+		}
+		return rows.size();
+	}
+
+	/** Insert {@code rows} from {@code from} up to {@code to}, in one transaction. */
+	private synchronized void insertEntries(ArrayList<Timer.Saved> rows, int from, int to)
+	{
+		if (insertStmt == null) insertStmt = db.compileStatement(SQL_INSERT);
+		db.beginTransaction();
+		try {
+			for (int i = from; i < to; i++) {
+				bindEntry(insertStmt, rows.get(i));
+				insertStmt.executeInsert();
+			}
+			db.setTransactionSuccessful();
+		} finally {
+			db.endTransaction();
+		}
+	}
+
+	private static void writeNullableUTF(DataOutputStream out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null) out.writeUTF(s);
+	}
+
+	private static String readNullableUTF(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
+	/**
+	 * One page of timers whose names start with {@code prefix} (ignoring
+	 * ASCII case), in name order, served from the name index. Columns are
+	 * {@link #NAME_COL_ID} and {@link #NAME_COL_NAME}.
+	 */
+	public synchronized Cursor findByName(String prefix, int offset, int limit)
+	{
+		String l = Integer.toString(limit), o = Integer.toString(offset);
+		if (prefix.length() == 0) return db.rawQuery(SQL_BY_NAME, new String[] { l, o });
+		return db.rawQuery(SQL_BY_NAME_PREFIX, new String[] { prefix, prefix + '\uffff', l, o });
 	}
 
 	public int removeEntry(long id)
@@ -187,14 +622,19 @@ public class TimerDB
 		return db.query(DB_TABLE, null, null, null, null, null, KEY_ID);
 	}
 
-	public static void moveCursorTo(Cursor c, long id)
+	/**
+	 * The id, next alarm time, exact flag and nag policy of every enabled
+	 * timer, earliest first as the index has them, and whether the fire
+	 * history has that alarm as fired; enough to restore alarms without
+	 * loading whole timers. Columns are {@link #DUE_COL_ID},
+	 * {@link #DUE_COL_NEXT}, {@link #DUE_COL_EXACT}, {@link #DUE_COL_NAGS}
+	 * and {@link #DUE_COL_FIRED}. History is only kept for the last
+	 * {@link FireHistory#MAX_RECORDS} fires, so an alarm that fired long
+	 * ago and was never reset may show as not fired.
+	 */
+	public Cursor getEnabledSchedules()
 	{
-		c.moveToFirst();
-		do {
-			if (c.getLong(COL_ID) == id) {
-				break;
-			}
-		} while (c.moveToNext());
+		return db.rawQuery(SQL_ENABLED_SCHEDULES, null);
 	}
 
 	private static class Helper extends SQLiteOpenHelper
@@ -208,6 +648,11 @@ public class TimerDB
 		public void onCreate(SQLiteDatabase _db)
 		{
 			_db.execSQL(DB_CREATE);
+			_db.execSQL(DB_CREATE_DUE_INDEX);
+			_db.execSQL(DB_CREATE_HISTORY);
+			_db.execSQL(DB_CREATE_HISTORY_INDEX);
+			_db.execSQL(DB_CREATE_NAME_INDEX);
+			_db.execSQL(DB_CREATE_WAKE);
 		}
 
 		@Override
@@ -217,7 +662,30 @@ public class TimerDB
 			case 1:
 				_db.execSQL("ALTER TABLE timers ADD COLUMN "+KEY_SEEN+" integer not null default 0");
 			// fall through
-			//case 2:
+			case 2:
+				_db.execSQL(DB_CREATE_DUE_INDEX);
+			// fall through
+			case 3:
+				_db.execSQL(DB_CREATE_HISTORY);
+				_db.execSQL(DB_CREATE_HISTORY_INDEX);
+			// fall through
+			case 4:
+				_db.execSQL("ALTER TABLE timers ADD COLUMN "+KEY_EXACT+" integer not null default 0");
+			// fall through
+			case 5:
+				_db.execSQL(DB_CREATE_NAME_INDEX);
+			// fall through
+			case 6:
+				_db.execSQL(DB_CREATE_WAKE);
+			// fall through
+			case 7:
+				_db.execSQL("ALTER TABLE timers ADD COLUMN "+KEY_NAGS+" text");
+			// fall through
+			case 8:
+				_db.execSQL("DROP INDEX timers_due");
+				_db.execSQL(DB_CREATE_DUE_INDEX);
+			// fall through
+			//case 9:
 			// ...
 				break;
 			default:
@@ -0,0 +1,300 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.util.Log;
+
+/**
+ * Process-wide cache of {@link Timer}s, shared by the activity, the receiver
+ * and the Locale plugin so that they all see (and modify) the same objects.
+ * Saves and removals are written back to the database on a background
+ * thread; everything that happens within {@link #COALESCE_MILLIS} of the
+ * first change goes into one transaction, however many edits it was.
+ */
+public class TimerRepository
+{
+	/** How long to wait for more changes before writing. */
+	static final long COALESCE_MILLIS = 500;
+
+	private static TimerRepository instance;
+
+	private final TimerDB db;
+	private final ConditionSnapshot snapshot;
+	private final HashMap<Long, Timer> cache = new HashMap<Long, Timer>();
+	private final LinkedHashMap<Long, Timer> dirty = new LinkedHashMap<Long, Timer>();
+	private final HashSet<Long> removed = new HashSet<Long>();
+	private final ArrayList<FireHistory.Event> events = new ArrayList<FireHistory.Event>();
+	private final ArrayList<long[]> wakeMillis = new ArrayList<long[]>();
+	private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+	private boolean flushQueued = false;
+
+	private final Runnable flusher = new Runnable() {
+		public void run() { flush(); }
+	};
+
+	private TimerRepository(Context context)
+	{
+		db = new TimerDB(context);
+		db.open();  // stays open for the life of the process
+		snapshot = ConditionSnapshot.get(context);
+		if (! snapshot.isValid()) {
+			writer.execute(new Runnable() {
+				public void run() { snapshot.rebuild(db); }
+			});
+		}
+	}
+
+	public static synchronized TimerRepository get(Context context)
+	{
+		if (instance == null) instance = new TimerRepository(context.getApplicationContext());
+		return instance;
+	}
+
+	/** @return the timer if it is already in memory, without opening the database. */
+	static Timer cached(long id)
+	{
+		TimerRepository r;
+		synchronized (TimerRepository.class) {
+			r = instance;
+		}
+		if (r == null) return null;
+		synchronized (r) {
+			return r.cache.get(id);
+		}
+	}
+
+	/** The shared, already open database; don't close it. */
+	TimerDB db()
+	{
+		return db;
+	}
+
+	public synchronized Timer get(long id)
+	{
+		Timer t = cache.get(id);
+		if (t == null && ! removed.contains(id)) {
+			t = db.getEntry(id);
+			if (t != null) cache.put(id, t);
+		}
+		return t;
+	}
+
+	/** @return every timer, in id order, sharing any instances already cached. */
+	public synchronized ArrayList<Timer> getAll()
+	{
+		Cursor c = db.getAllEntries();
+		ArrayList<Timer> all = new ArrayList<Timer>(c.getCount());
+		while (c.moveToNext()) {
+			long id = c.getLong(TimerDB.COL_ID);
+			if (removed.contains(id)) continue;
+			Timer t = cache.get(id);
+			if (t == null) {
+				t = db.cursorToEntry(c);
+				cache.put(id, t);
+			}
+			all.add(t);
+		}
+		c.close();
+		return all;
+	}
+
+	/**
+	 * Note that a timer has changed. New timers are inserted straight away
+	 * so that they have an id when this returns; existing ones are written
+	 * in the background, so this is cheap enough to call on every edit.
+	 */
+	public synchronized void save(Timer t)
+	{
+		if (t.id < 0) {
+			snapshot.beginUpdate();
+			try {
+				db.saveEntry(t);
+			} catch (RuntimeException e) {
+				snapshot.finishUpdate();
+				throw e;
+			}
+			cache.put(t.id, t);
+			snapshot.finishUpdate(Collections.singletonList(t), Collections.<Long>emptyList());
+			return;
+		}
+		cache.put(t.id, t);
+		dirty.put(t.id, t);
+		scheduleFlush();
+	}
+
+	private void scheduleFlush()
+	{
+		if (flushQueued) return;
+		flushQueued = true;
+		writer.schedule(flusher, COALESCE_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Add the timers exported to {@code in}, then bring the condition
+	 * snapshot and alarms up to date once for all of them. Slow for large
+	 * imports, so call it in the background, but not through
+	 * {@link AlarmDispatcher#execute(Runnable)}, or alarms would wait for
+	 * it. The rows go in a chunk at a time (see
+	 * {@link TimerDB#importEntries(DataInputStream)}) without holding this
+	 * repository's lock, so saves and loads carry on meanwhile; the new
+	 * timers only get alarms once they are all in.
+	 * <p>
+	 * This only ever appends: each imported timer gets a new id, even if
+	 * the same export was imported before, and existing timers are left as
+	 * they are. Cached timers are dropped all the same, apart from any with
+	 * changes still to write, so everyone sees what is in the database;
+	 * holders of the old instances should fetch them again.
+	 * @return the number of timers imported
+	 */
+	public int importTimers(Context context, DataInputStream in) throws IOException
+	{
+		int n;
+		snapshot.beginUpdate();
+		try {
+			flush();
+			n = db.importEntries(in);
+			synchronized (this) {
+				cache.keySet().retainAll(dirty.keySet());
+			}
+			snapshot.rebuild(db);
+		} finally {
+			snapshot.finishUpdate();
+		}
+		AlarmScheduler.get(context).rebuild(false);
+		return n;
+	}
+
+	/** Write all timers to {@code out}, including changes not yet flushed. */
+	public int exportTimers(DataOutputStream out) throws IOException
+	{
+		flush();
+		return db.exportEntries(out);
+	}
+
+	/** Queue a {@link FireHistory} event to be written with the next batch. */
+	public synchronized void record(FireHistory.Event e)
+	{
+		events.add(e);
+		scheduleFlush();
+	}
+
+	/** Queue some wake lock time to be added to a timer's total for a day. */
+	public synchronized void recordWakeMillis(long day, long timer, long millis)
+	{
+		wakeMillis.add(new long[] { day, timer, millis });
+		scheduleFlush();
+	}
+
+	/** Save and write out now, for callers whose process may die on return. */
+	public void saveNow(Timer t)
+	{
+		save(t);
+		flush();
+	}
+
+	public synchronized void remove(long id)
+	{
+		dirty.remove(id);
+		cache.remove(id);
+		removed.add(id);
+		scheduleFlush();
+	}
+
+	/**
+	 * Wait until everything saved so far is in the database, e.g. before
+	 * the activity is paused and the process becomes killable.
+	 */
+	public void barrier()
+	{
+		try {
+			writer.submit(flusher).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	/**
+	 * Write out all pending changes in one transaction, on the calling
+	 * thread. If that fails, they are queued again, ahead of anything
+	 * newer, and another attempt is scheduled.
+	 */
+	public void flush()
+	{
+		ArrayList<Timer> batch;
+		ArrayList<Long> gone;
+		ArrayList<FireHistory.Event> history;
+		ArrayList<long[]> wake;
+		synchronized (this) {
+			flushQueued = false;
+			if (dirty.isEmpty() && removed.isEmpty() && events.isEmpty() && wakeMillis.isEmpty()) return;
+			batch = new ArrayList<Timer>(dirty.values());
+			gone = new ArrayList<Long>(removed);
+			history = new ArrayList<FireHistory.Event>(events);
+			wake = new ArrayList<long[]>(wakeMillis);
+			dirty.clear();
+			events.clear();
+			wakeMillis.clear();
+		}
+		Log.d(TimerActivity.TAG, "Writing "+batch.size()+" timers, removing "+gone.size()
+				+", "+history.size()+" history events");
+		snapshot.beginUpdate();
+		try {
+			db.writeEntries(batch, gone, history, wake);
+		} catch (RuntimeException e) {
+			snapshot.finishUpdate();
+			Log.e(TimerActivity.TAG, "Writing timers failed, will retry", e);
+			requeue(batch, history, wake);
+			return;
+		}
+		snapshot.finishUpdate(batch, gone);
+		synchronized (this) {
+			removed.removeAll(gone);
+		}
+	}
+
+	/** Put back a batch that {@link #flush()} couldn't write; removals were never taken off. */
+	private synchronized void requeue(ArrayList<Timer> batch, ArrayList<FireHistory.Event> history,
+			ArrayList<long[]> wake)
+	{
+		LinkedHashMap<Long, Timer> newer = new LinkedHashMap<Long, Timer>(dirty);
+		dirty.clear();
+		for (Timer t : batch) {
+			if (! removed.contains(t.id)) dirty.put(t.id, t);
+		}
+		dirty.putAll(newer);
+		events.addAll(0, history);
+		wakeMillis.addAll(0, wake);
+		scheduleFlush();
+	}
+}
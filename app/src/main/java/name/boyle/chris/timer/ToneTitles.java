@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.media.Ringtone;
+import android.media.RingtoneManager;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.LruCache;
+
+/**
+ * Display titles of ringtones, which otherwise cost a media provider query
+ * each. Titles are looked up in the background, and forgotten whenever the
+ * media store changes.
+ */
+public class ToneTitles
+{
+	public interface Callback
+	{
+		/** Called on the main thread once a title that wasn't cached is known. */
+		void onTitle(Uri uri, String title);
+	}
+
+	private static final int MAX_TITLES = 64;
+	private static ToneTitles instance;
+
+	private final Context context;
+	private final LruCache<Uri, String> cache = new LruCache<Uri, String>(MAX_TITLES);
+	private final ExecutorService loader = Executors.newSingleThreadExecutor();
+	private final Handler handler = new Handler(Looper.getMainLooper());
+
+	private ToneTitles(Context context)
+	{
+		this.context = context;
+		ContentObserver observer = new ContentObserver(handler) {
+			@Override
+			public void onChange(boolean selfChange) {
+				cache.evictAll();
+			}
+		};
+		context.getContentResolver().registerContentObserver(
+				MediaStore.Audio.Media.INTERNAL_CONTENT_URI, true, observer);
+		context.getContentResolver().registerContentObserver(
+				MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, observer);
+	}
+
+	public static synchronized ToneTitles get(Context context)
+	{
+		if (instance == null) instance = new ToneTitles(context.getApplicationContext());
+		return instance;
+	}
+
+	/**
+	 * @return the title if it is cached; otherwise null, and {@code callback}
+	 * will be given it later.
+	 */
+	public String get(final Uri uri, final Callback callback)
+	{
+		String title = cache.get(uri);
+		if (title != null) return title;
+		loader.execute(new Runnable() {
+			public void run() {
+				final String t = load(uri);
+				handler.post(new Runnable() {
+					public void run() { callback.onTitle(uri, t); }
+				});
+			}
+		});
+		return null;
+	}
+
+	/** Look up a title in the background so it is ready when needed. */
+	public void prefetch(final Uri uri)
+	{
+		if (uri == null || RingtoneManager.isDefault(uri) || cache.get(uri) != null) return;
+		loader.execute(new Runnable() {
+			public void run() { load(uri); }
+		});
+	}
+
+	private String load(Uri uri)
+	{
+		String title = cache.get(uri);
+		if (title != null) return title;
+		Ringtone r = RingtoneManager.getRingtone(context, uri);
+		title = (r == null) ? uri.getLastPathSegment() : r.getTitle(context);
+		if (title == null) title = uri.toString();
+		cache.put(uri, title);
+		return title;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.TimeZone;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Keeps the CPU awake while alarms are handled: from when the alarm is
+ * received until the notification is posted, the timers are saved and the
+ * next wakeup is set. Each {@link Hold} lasts exactly that long, and the
+ * time up to its final write is charged to the timers it was for, per local
+ * day (see {@link TimerDB#getWakeMillis(long)}), in that same write. If something gets stuck, the lock
+ * lets go by itself after {@link #TIMEOUT_MILLIS}.
+ */
+public class WakeLocks
+{
+	/** Longest the lock is held, however many holds are outstanding. */
+	static final long TIMEOUT_MILLIS = 60 * 1000;
+	/** Wake time not spent on any particular timer, e.g. restoring alarms after boot. */
+	static final long NO_TIMER = -1;
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+	private static final long[] NO_TIMERS = { NO_TIMER };
+
+	private static WakeLocks instance;
+
+	private final Context context;
+	private final PowerManager.WakeLock lock;
+	private int holds = 0;
+
+	/** One piece of work that needs the CPU; release it when done. */
+	public class Hold
+	{
+		private final long start = SystemClock.elapsedRealtime(), startNanos = Metrics.start();
+		private long[] timers = NO_TIMERS;
+		private boolean charged = false, released = false;
+
+		/** Charge this hold's time to these timers, shared equally. */
+		public void setTimers(long[] ids)
+		{
+			timers = ids.length > 0 ? ids : NO_TIMERS;
+		}
+
+		/**
+		 * Charge the time held so far to the timers, to go with the next
+		 * write. Call just before the flush that ends the work, so that it
+		 * is written in the same transaction, while the CPU is still held;
+		 * anything after that is not counted. A hold released without
+		 * being charged is charged then, and written a little later.
+		 */
+		public void charge()
+		{
+			WakeLocks.this.charge(this);
+		}
+
+		public void release()
+		{
+			WakeLocks.this.release(this);
+		}
+	}
+
+	private WakeLocks(Context context)
+	{
+		this.context = context;
+		PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+		lock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "Timer");
+		// We count holds ourselves: a counted lock throws if released after its timeout
+		lock.setReferenceCounted(false);
+	}
+
+	public static synchronized WakeLocks get(Context context)
+	{
+		if (instance == null) instance = new WakeLocks(context.getApplicationContext());
+		return instance;
+	}
+
+	public synchronized Hold acquire()
+	{
+		holds++;
+		lock.acquire(TIMEOUT_MILLIS);  // also pushes back the timeout if already held
+		return new Hold();
+	}
+
+	private void charge(Hold h)
+	{
+		long millis;
+		synchronized (this) {
+			if (h.charged || h.released) return;
+			h.charged = true;
+			millis = SystemClock.elapsedRealtime() - h.start;
+		}
+		long now = Clock.get().now();
+		long day = localDay(now);
+		long share = millis / h.timers.length, extra = millis % h.timers.length;
+		TimerRepository repo = TimerRepository.get(context);
+		for (int i = 0; i < h.timers.length; i++) {
+			repo.recordWakeMillis(day, h.timers[i], share + (i == 0 ? extra : 0));
+		}
+	}
+
+	private void release(Hold h)
+	{
+		charge(h);
+		synchronized (this) {
+			if (h.released) return;
+			h.released = true;
+			if (--holds == 0 && lock.isHeld()) {
+				lock.release();
+				Log.d(TimerActivity.TAG, "Released wake lock");
+			}
+		}
+		Metrics.end(Metrics.WAKE_LOCK, h.startNanos);
+	}
+
+	/** Days since the epoch, in local time. */
+	static long localDay(long millis)
+	{
+		return (millis + TimeZone.getDefault().getOffset(millis)) / DAY;
+	}
+}
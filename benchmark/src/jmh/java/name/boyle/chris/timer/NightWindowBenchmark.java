@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of deciding whether an alarm is a night one, as done on every
+ * notification and every wait decision.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NightWindowBenchmark
+{
+	static final int NIGHT_START = 22 * 3600, NIGHT_STOP = 7 * 3600;
+	static final long DAY = 24 * 60 * 60 * 1000L;
+
+	NightWindow window;
+	long now, nextMillis;
+	/** Times spread over a year, so that most calls cross a day boundary. */
+	long[] spread;
+	int i;
+
+	@Setup
+	public void setUp()
+	{
+		window = new NightWindow();
+		now = System.currentTimeMillis();
+		nextMillis = now - 90 * 60 * 1000L;
+		spread = new long[1024];
+		for (int j = 0; j < spread.length; j++) spread[j] = now + j * (365 * DAY / spread.length);
+	}
+
+	@Benchmark
+	public long occurrence()
+	{
+		return OccurrenceBaseline.occurrence(NIGHT_START, now, false);
+	}
+
+	@Benchmark
+	public boolean isNightBaseline()
+	{
+		return OccurrenceBaseline.isNight(NIGHT_START, NIGHT_STOP, nextMillis, now);
+	}
+
+	@Benchmark
+	public boolean isNight()
+	{
+		return window.isNight(NIGHT_START, NIGHT_STOP, nextMillis, now);
+	}
+
+	@Benchmark
+	public boolean isNightNewDayEachCall()
+	{
+		long t = spread[i++ & (spread.length - 1)];
+		return window.isNight(NIGHT_START, NIGHT_STOP, t - 90 * 60 * 1000L, t);
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The carrying between the hours, minutes and seconds of an
+ * {@link HMSPicker}, as each step of a held +/- button runs it. The
+ * listener stands in for the pickers' views, which redraw on each change.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PickerCarryBenchmark
+{
+	PickerValue hours, mins, secs;
+	int changes;
+
+	@Setup
+	public void setUp()
+	{
+		PickerValue.Listener count = new PickerValue.Listener() {
+			public void onChanged(PickerValue value, int oldVal, int newVal)
+			{
+				changes++;
+			}
+		};
+		hours = new PickerValue();
+		mins = new PickerValue();
+		secs = new PickerValue();
+		hours.setRange(0, 99);
+		mins.setRange(0, 59);
+		secs.setRange(0, 59);
+		hours.setSmaller(mins);
+		mins.setSmaller(secs);
+		hours.setListener(count);
+		mins.setListener(count);
+		secs.setListener(count);
+	}
+
+	/** Seconds up, carrying into minutes every 60 and hours every 3600. */
+	@Benchmark
+	public int increment()
+	{
+		if (hours.getCurrent() == 50) hours.setCurrent(0);
+		secs.increment();
+		return changes;
+	}
+
+	/** Seconds down, borrowing from minutes and hours. */
+	@Benchmark
+	public int decrement()
+	{
+		if (hours.getCurrent() == 0) hours.setCurrent(50);
+		secs.decrement();
+		return changes;
+	}
+
+	/** 0:59:59 to 1:00:00, the longest carry. */
+	@Benchmark
+	public int carryIntoHours()
+	{
+		hours.setCurrent(0);
+		mins.setCurrent(59);
+		secs.setCurrent(59);
+		secs.increment();
+		return changes;
+	}
+
+	/** At 99:59:59 there is nowhere to carry, so the chain is searched and nothing changes. */
+	@Benchmark
+	public int incrementAtMaximum()
+	{
+		hours.setCurrent(99);
+		mins.setCurrent(59);
+		secs.setCurrent(59);
+		secs.increment();
+		return changes;
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of the schedule arithmetic as {@code Timer} uses it: every Locale
+ * condition query asks {@code isLateByMins}, and every reset works out the
+ * next time. Each reads the time through {@link Clock}, as Timer does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ScheduleBenchmark
+{
+	static final long MINUTE = 60 * 1000L;
+
+	/** Next times from an hour ago to an hour ahead, so both answers come up. */
+	long[] nexts;
+	long[] intervals = { 15 * 60, 60 * 60, 4 * 60 * 60, 24 * 60 * 60 };
+	long now;
+	int i;
+
+	@Setup
+	public void setUp()
+	{
+		Clock.set(Clock.SYSTEM);
+		now = System.currentTimeMillis();
+		nexts = new long[1024];
+		for (int j = 0; j < nexts.length; j++) nexts[j] = now - 60 * MINUTE + j * (120 * MINUTE / nexts.length);
+	}
+
+	@Benchmark
+	public boolean isLateByMins()
+	{
+		long next = nexts[i++ & (nexts.length - 1)];
+		return Schedule.isLateByMins(true, next, Clock.get().now(), 10);
+	}
+
+	/** The arithmetic alone. */
+	@Benchmark
+	public boolean isLateByMinsFixedNow()
+	{
+		long next = nexts[i++ & (nexts.length - 1)];
+		return Schedule.isLateByMins(true, next, now, 10);
+	}
+
+	@Benchmark
+	public boolean isLateByMinsDisabled()
+	{
+		long next = nexts[i++ & (nexts.length - 1)];
+		return Schedule.isLateByMins(false, next, Clock.get().now(), 10);
+	}
+
+	@Benchmark
+	public long afterReset()
+	{
+		return Schedule.afterReset(true, intervals[i++ & (intervals.length - 1)], Clock.get().now());
+	}
+
+	/** The cost of reading the time through {@link Clock}, which each of the above includes. */
+	@Benchmark
+	public long clockNow()
+	{
+		return Clock.get().now();
+	}
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.Calendar;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Replays months of alarms for many timers against a virtual clock and a
+ * stand-in for {@code AlarmManager}, using the app's own {@link AlarmQueue},
+ * {@link NightWindow} and {@link Schedule}. Reports how many wakeups and
+ * fires there were and how late they came, and how fast the simulation ran.
+ * Deterministic for a given seed. Every timer reminds according to the
+ * same {@link NagPolicy} until acknowledged, so policies can be compared.
+ * <p>
+ * {@code gradle :benchmark:simulate -Pargs="timers days seed nags"}
+ */
+public class ScheduleSimulator
+{
+	static final long MINUTE = 60 * 1000L, HOUR = 60 * MINUTE, DAY = 24 * HOUR;
+	static final long[] INTERVALS = { 15 * MINUTE, 30 * MINUTE, HOUR, 2 * HOUR, 4 * HOUR,
+			6 * HOUR, 8 * HOUR, 12 * HOUR, DAY };
+	/** Inexact wakeups may be deferred by up to this much, to batch with others. */
+	static final long INEXACT_WINDOW = 5 * MINUTE;
+	/** Even exact wakeups take a moment to be delivered. */
+	static final long EXACT_DELAY = 50;
+
+	static class VirtualClock extends Clock
+	{
+		long now;
+
+		@Override
+		public long now() { return now; }
+	}
+
+	/** Remembers the wakeups that are set, and when each will really be delivered. */
+	class FakeAlarms implements AlarmQueue.Wakeups
+	{
+		long inexactDue = -1, exactDue = -1, inexactAt = -1, exactAt = -1;
+		int sets;
+
+		public void set(long due, boolean exact, int timers)
+		{
+			sets++;
+			if (exact) {
+				if (due != exactDue) exactAt = due + (long)(random.nextDouble() * EXACT_DELAY);
+				exactDue = due;
+			} else {
+				if (due != inexactDue) inexactAt = due + (long)(random.nextDouble() * INEXACT_WINDOW);
+				inexactDue = due;
+			}
+		}
+
+		public void cancel(boolean exact)
+		{
+			if (exact) exactDue = exactAt = -1; else inexactDue = inexactAt = -1;
+		}
+	}
+
+	static class SimTimer
+	{
+		final long id;
+		long next, interval;
+		int nightStart, nightStop;
+		boolean dayWait, nightWait, exact;
+		final NightWindow window = new NightWindow();
+		/** The next time we last counted a fire for; later deliveries for it are nags. */
+		long firedFor = Long.MIN_VALUE;
+		boolean awaitingAck;
+
+		SimTimer(long id)
+		{
+			this.id = id;
+		}
+	}
+
+	final Random random;
+	final VirtualClock clock = new VirtualClock();
+	final FakeAlarms alarms = new FakeAlarms();
+	final AlarmQueue queue = new AlarmQueue(alarms);
+	final NagPolicy nagPolicy;
+	final SimTimer[] timers;
+	/** Pending acknowledgements: {time, timer id}. */
+	final PriorityQueue<long[]> acks = new PriorityQueue<long[]>(16, new java.util.Comparator<long[]>() {
+		public int compare(long[] a, long[] b) { return a[0] < b[0] ? -1 : (a[0] == b[0] ? 0 : 1); }
+	});
+	final Metrics.Histogram lateness = new Metrics.Histogram(), exactLateness = new Metrics.Histogram();
+	long wakeups, fires, nags, resets, nightFires;
+
+	ScheduleSimulator(int n, long start, long seed, NagPolicy nagPolicy)
+	{
+		random = new Random(seed);
+		this.nagPolicy = nagPolicy;
+		clock.now = start;
+		timers = new SimTimer[n];
+		for (int i = 0; i < n; i++) {
+			SimTimer t = timers[i] = new SimTimer(i);
+			t.interval = INTERVALS[random.nextInt(INTERVALS.length)];
+			t.nightStart = (21 + random.nextInt(3)) * 3600;
+			t.nightStop = (6 + random.nextInt(3)) * 3600;
+			t.dayWait = random.nextInt(2) == 0;
+			t.nightWait = random.nextInt(5) != 0;
+			t.exact = random.nextInt(10) == 0;
+			t.next = start + (long)(random.nextDouble() * t.interval);
+			queue.put(t.id, t.next, nagPolicy, t.exact, start);
+		}
+		queue.arm();
+	}
+
+	void run(long end)
+	{
+		while (true) {
+			long ackAt = acks.isEmpty() ? -1 : acks.peek()[0];
+			long at = earliest(earliest(alarms.inexactAt, alarms.exactAt), ackAt);
+			if (at < 0 || at > end) break;
+			clock.now = at;
+			if (at == ackAt) {
+				acknowledge(timers[(int)acks.poll()[1]]);
+				continue;
+			}
+			if (at == alarms.exactAt) alarms.exactDue = alarms.exactAt = -1;
+			else alarms.inexactDue = alarms.inexactAt = -1;
+			wakeups++;
+			for (long id : queue.takeDue(at)) fire(timers[(int)id]);
+		}
+	}
+
+	private static long earliest(long a, long b)
+	{
+		if (a < 0) return b;
+		if (b < 0) return a;
+		return Math.min(a, b);
+	}
+
+	private void fire(SimTimer t)
+	{
+		long now = clock.now;
+		if (t.firedFor == t.next) {
+			nags++;
+			return;
+		}
+		fires++;
+		t.firedFor = t.next;
+		(t.exact ? exactLateness : lateness).record(now - t.next);
+		boolean night = t.window.isNight(t.nightStart, t.nightStop, t.next, now);
+		if (night) nightFires++;
+		if (! (night ? t.nightWait : t.dayWait)) {
+			reset(t);
+		} else if (! t.awaitingAck) {
+			// Someone notices: within 20 minutes by day, hours later at night
+			long delay = night ? 2 * HOUR + (long)(random.nextDouble() * 6 * HOUR)
+					: MINUTE + (long)(random.nextDouble() * 19 * MINUTE);
+			t.awaitingAck = true;
+			acks.add(new long[] { now + delay, t.id });
+		}
+	}
+
+	private void acknowledge(SimTimer t)
+	{
+		t.awaitingAck = false;
+		reset(t);
+	}
+
+	private void reset(SimTimer t)
+	{
+		resets++;
+		long now = clock.now;
+		t.next = Schedule.afterReset(true, t.interval / 1000, now);
+		queue.put(t.id, t.next, nagPolicy, t.exact, now);
+		queue.arm();
+	}
+
+	public static void main(String[] args)
+	{
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int days = args.length > 1 ? Integer.parseInt(args[1]) : 365;
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+		NagPolicy nags = args.length > 3 ? NagPolicy.parse(args[3]) : NagPolicy.DEFAULT;
+
+		// Fixed zone and start, so runs are repeatable; London has DST to exercise
+		TimeZone.setDefault(TimeZone.getTimeZone("Europe/London"));
+		Calendar cal = Calendar.getInstance();
+		cal.clear();
+		cal.set(2015, Calendar.JANUARY, 1);
+		long start = cal.getTimeInMillis();
+
+		ScheduleSimulator sim = new ScheduleSimulator(n, start, seed, nags);
+		Clock.set(sim.clock);
+		long wall = System.nanoTime();
+		sim.run(start + days * DAY);
+		wall = System.nanoTime() - wall;
+		Clock.set(Clock.SYSTEM);
+
+		System.out.println(n + " timers over " + days + " days, seed " + seed + ", nags \"" + nags + "\"");
+		System.out.println("  wakeups delivered: " + sim.wakeups + ", AlarmManager sets: " + sim.alarms.sets);
+		System.out.println("  fires: " + sim.fires + " (" + sim.nightFires + " at night), nags: " + sim.nags
+				+ ", resets: " + sim.resets);
+		System.out.printf("  fires per wakeup: %.2f%n", sim.wakeups == 0 ? 0.0 : (double)(sim.fires + sim.nags) / sim.wakeups);
+		System.out.println("  lateness of inexact fires, ms: " + sim.lateness.summary());
+		System.out.println("  lateness of exact fires, ms: " + sim.exactLateness.summary());
+		long events = sim.wakeups + sim.resets;
+		System.out.printf("  simulated in %.2f s (%.0f events/s)%n", wall / 1e9, events / (wall / 1e9));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Turning rows of the timers table into timers, as {@code cursorToEntry}
+ * does for every timer when the list is loaded and for each one
+ * {@code getEntry} reads. {@link TimerTable#read} makes the same column
+ * reads and parses the nag policy; building the {@code Timer} itself and
+ * parsing the tone URIs need the Android runtime, so are left out. Times
+ * are per timer.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerLoadBenchmark
+{
+	static final int TIMERS = 100;
+
+	Connection db;
+	PreparedStatement selectAll, selectById;
+
+	@Setup
+	public void setUp() throws SQLException
+	{
+		db = TimerTable.open(TIMERS);
+		selectAll = db.prepareStatement("select * from timers order by _id");
+		selectById = db.prepareStatement("select * from timers where _id = ?");
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException
+	{
+		selectAll.close();
+		selectById.close();
+		db.close();
+	}
+
+	/** What {@code getAllEntries} and a {@code cursorToEntry} per row cost. */
+	@Benchmark
+	@OperationsPerInvocation(TIMERS)
+	public long readAll() throws SQLException
+	{
+		long sum = 0;
+		ResultSet c = selectAll.executeQuery();
+		while (c.next()) sum += TimerTable.read(c).next;
+		c.close();
+		return sum;
+	}
+
+	/** What {@code getEntry} costs for one timer at a time. */
+	@Benchmark
+	@OperationsPerInvocation(TIMERS)
+	public long readById() throws SQLException
+	{
+		long sum = 0;
+		for (int i = 1; i <= TIMERS; i++) {
+			selectById.setLong(1, i);
+			ResultSet c = selectById.executeQuery();
+			if (c.next()) sum += TimerTable.read(c).next;
+			c.close();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * 10k saves and loads of a timer, each way {@link TimerDB} has done them:
+ * a {@code ContentValues}-style map and a freshly built and compiled
+ * statement per call, as {@code SQLiteDatabase.update} and {@code query}
+ * do with a "_id=" + id selection, against statements compiled once and
+ * re-bound. Times are per save or load.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerSaveBenchmark
+{
+	static final int SAVES = 10000, TIMERS = 100;
+
+	Connection db;
+	TimerTable.Row[] rows;
+	PreparedStatement update, selectById;
+
+	@Setup
+	public void setUp() throws SQLException
+	{
+		db = TimerTable.open(TIMERS);
+		rows = new TimerTable.Row[TIMERS];
+		for (int i = 0; i < TIMERS; i++) rows[i] = new TimerTable.Row(i);
+		update = TimerTable.prepareUpdate(db, TimerTable.allColumns());
+		selectById = db.prepareStatement("select * from timers where _id = ?");
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException
+	{
+		update.close();
+		selectById.close();
+		db.close();
+	}
+
+	/** What {@code toContentVals} built: every field, boxed. */
+	static Map<String, Object> contentValues(TimerTable.Row r)
+	{
+		HashMap<String, Object> c = new HashMap<String, Object>();
+		c.put("name", r.name);
+		c.put("enabled", r.enabled);
+		c.put("next", r.next);
+		c.put("interval", r.interval);
+		c.put("dayTone", r.dayTone);
+		c.put("dayLED", r.dayLED);
+		c.put("dayWait", r.dayWait);
+		c.put("nightTone", r.nightTone);
+		c.put("nightLED", r.nightLED);
+		c.put("nightWait", r.nightWait);
+		c.put("nightStart", r.nightStart);
+		c.put("nightStop", r.nightStop);
+		c.put("nightNext", r.nightNext);
+		c.put("seen", r.seen);
+		c.put("exact", r.exact);
+		c.put("nags", r.nags);
+		return c;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public int saveWithContentValues() throws SQLException
+	{
+		int n = 0;
+		for (int i = 0; i < SAVES; i++) {
+			TimerTable.Row r = rows[i % TIMERS];
+			r.next++;
+			Map<String, Object> values = contentValues(r);
+			StringBuilder sql = new StringBuilder("update timers set ");
+			Object[] args = new Object[values.size()];
+			int a = 0;
+			for (Map.Entry<String, Object> e : values.entrySet()) {
+				sql.append(a == 0 ? "" : ",").append(e.getKey()).append("=?");
+				Object v = e.getValue();
+				args[a++] = v instanceof Boolean ? ((Boolean)v ? 1 : 0) : v;
+			}
+			sql.append(" where ").append("_id=" + (i % TIMERS + 1));
+			PreparedStatement s = db.prepareStatement(sql.toString());
+			for (a = 0; a < args.length; a++) s.setObject(a + 1, args[a]);
+			n += s.executeUpdate();
+			s.close();
+		}
+		return n;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public int saveCompiled() throws SQLException
+	{
+		int n = 0;
+		for (int i = 0; i < SAVES; i++) {
+			TimerTable.Row r = rows[i % TIMERS];
+			r.next++;
+			for (int col = 0; col < TimerTable.COLUMNS.length; col++) {
+				TimerTable.bindColumn(update, col + 1, r, col);
+			}
+			update.setLong(TimerTable.COLUMNS.length + 1, i % TIMERS + 1);
+			n += update.executeUpdate();
+		}
+		return n;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public long loadWithStringQuery() throws SQLException
+	{
+		long sum = 0;
+		for (int i = 0; i < SAVES; i++) {
+			Statement s = db.createStatement();
+			ResultSet c = s.executeQuery("select * from timers where " + "_id=" + (i % TIMERS + 1));
+			if (c.next()) sum += c.getLong("next");
+			c.close();
+			s.close();
+		}
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public long loadCompiled() throws SQLException
+	{
+		long sum = 0;
+		for (int i = 0; i < SAVES; i++) {
+			selectById.setLong(1, i % TIMERS + 1);
+			ResultSet c = selectById.executeQuery();
+			if (c.next()) sum += c.getLong(4);
+			c.close();
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * The two commonest saves, each written as the full 16-column UPDATE that
+ * {@link TimerDB} used to issue and as the partial one it issues now:
+ * {@code Timer.notify} changes {@code next} and {@code seen}, and marking a
+ * timer seen changes only {@code seen}. The partial UPDATEs bind 2 and 1
+ * integers instead of 16 values, three of them strings, and SQLite leaves
+ * alone any index none of whose columns are set; it still rewrites the
+ * whole row, so that part of the write is the same either way. Times are
+ * per save.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TimerUpdateBenchmark
+{
+	static final int SAVES = 10000, TIMERS = 100;
+	static final int NEXT = 2, SEEN = 13;
+
+	/** Whether each save writes every column, or only the ones that changed. */
+	@Param({ "full", "partial" })
+	String way;
+
+	Connection db;
+	TimerTable.Row[] rows;
+	PreparedStatement notifyUpdate, seenUpdate;
+	int[] notifyColumns, seenColumns;
+
+	@Setup
+	public void setUp() throws SQLException
+	{
+		db = TimerTable.open(TIMERS);
+		rows = new TimerTable.Row[TIMERS];
+		for (int i = 0; i < TIMERS; i++) rows[i] = new TimerTable.Row(i);
+		boolean full = "full".equals(way);
+		notifyColumns = full ? TimerTable.allColumns() : new int[] { NEXT, SEEN };
+		seenColumns = full ? TimerTable.allColumns() : new int[] { SEEN };
+		notifyUpdate = TimerTable.prepareUpdate(db, notifyColumns);
+		seenUpdate = TimerTable.prepareUpdate(db, seenColumns);
+	}
+
+	@TearDown
+	public void tearDown() throws SQLException
+	{
+		notifyUpdate.close();
+		seenUpdate.close();
+		db.close();
+	}
+
+	private int save(PreparedStatement s, int[] cols, int i) throws SQLException
+	{
+		TimerTable.Row r = rows[i % TIMERS];
+		for (int c = 0; c < cols.length; c++) TimerTable.bindColumn(s, c + 1, r, cols[c]);
+		s.setLong(cols.length + 1, i % TIMERS + 1);
+		return s.executeUpdate();
+	}
+
+	/** A timer fires: it's reset to its next time, and waits to be seen. */
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public int notifySave() throws SQLException
+	{
+		int n = 0;
+		for (int i = 0; i < SAVES; i++) {
+			TimerTable.Row r = rows[i % TIMERS];
+			r.next += r.interval * 1000;
+			r.seen = false;
+			n += save(notifyUpdate, notifyColumns, i);
+		}
+		return n;
+	}
+
+	/** The user opens a timer that had fired. */
+	@Benchmark
+	@OperationsPerInvocation(SAVES)
+	public int seenSave() throws SQLException
+	{
+		int n = 0;
+		for (int i = 0; i < SAVES; i++) {
+			TimerTable.Row r = rows[i % TIMERS];
+			r.seen = ! r.seen;
+			n += save(seenUpdate, seenColumns, i);
+		}
+		return n;
+	}
+}
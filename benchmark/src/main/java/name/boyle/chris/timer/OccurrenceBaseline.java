@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.util.Calendar;
+
+/**
+ * The night calculation as it was before {@link NightWindow}: three calls to
+ * {@code Timer.occurrence}, each building a fresh calendar. That used
+ * {@code android.text.format.Time}, which needs the Android runtime, so this
+ * port uses {@link Calendar} to keep the same per-call shape on the JVM.
+ */
+class OccurrenceBaseline
+{
+	static long occurrence(int timeOfDay, long from, boolean forwards)
+	{
+		Calendar t = Calendar.getInstance();
+		t.setTimeInMillis(from);
+		t.set(Calendar.MILLISECOND, 0);
+		t.set(Calendar.SECOND, timeOfDay % 60);
+		timeOfDay /= 60;
+		t.set(Calendar.MINUTE, timeOfDay % 60);
+		timeOfDay /= 60;
+		t.set(Calendar.HOUR_OF_DAY, timeOfDay);
+		long m = t.getTimeInMillis();
+		if (forwards && m < from) {
+			t.add(Calendar.DAY_OF_MONTH, 1);
+			m = t.getTimeInMillis();
+		} else if (! forwards && m > from) {
+			t.add(Calendar.DAY_OF_MONTH, -1);
+			m = t.getTimeInMillis();
+		}
+		return m;
+	}
+
+	static boolean isNight(int nightStart, int nightStop, long nextMillis, long now)
+	{
+		long lastNightStart = occurrence(nightStart, now, false),
+				nextNightStop = occurrence(nightStop, lastNightStart, true),
+				lastForceWake = occurrence(NightWindow.FORCE_WAKE_TIME, now, false);
+		return ! (lastNightStart <= nextMillis && (nextNightStop <= nextMillis || lastForceWake >= nextNightStop));
+	}
+}
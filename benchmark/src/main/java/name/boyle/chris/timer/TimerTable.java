@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * The {@code timers} table and its indexes as {@link TimerDB} creates
+ * them, in an in-memory SQLite database reached through JDBC. TimerDB needs
+ * the Android runtime, but the SQL it issues runs on the same SQLite engine
+ * here, so the cost of each way of saving a timer can be measured on the JVM.
+ * TimerTableTest checks that this still matches TimerDB's source.
+ */
+class TimerTable
+{
+	/** Every column but the id, in the same order as TimerDB binds them. */
+	static final String[] COLUMNS = { "name", "enabled", "next", "interval", "dayTone", "dayLED",
+			"dayWait", "nightTone", "nightLED", "nightWait", "nightStart", "nightStop", "nightNext",
+			"seen", "exact", "nags" };
+	static final String CREATE = "create table timers (_id integer primary key autoincrement, " +
+			"name text not null, enabled integer not null, next integer not null, " +
+			"interval integer not null, dayTone text, dayLED integer not null, " +
+			"dayWait integer not null, nightTone text, nightLED integer not null, " +
+			"nightWait integer not null, nightStart integer not null, nightStop integer not null, " +
+			"nightNext integer not null, seen integer not null, exact integer not null default 0, " +
+			"nags text)";
+	static final String[] INDEXES = {
+			"create index timers_due on timers (enabled, next)",
+			"create index timers_name on timers (name collate nocase, _id)" };
+	static final String TONE = "content://settings/system/alarm_alert";
+
+	/** The persisted fields of one timer, like {@code Timer.Saved}. */
+	static class Row
+	{
+		long id;
+		String name, dayTone, nightTone, nags;
+		boolean enabled, dayLED, dayWait, nightLED, nightWait, nightNext, seen, exact;
+		long next, interval, nightStart, nightStop;
+		NagPolicy nagPolicy;
+
+		Row()
+		{
+		}
+
+		Row(int i)
+		{
+			name = "Timer " + i;
+			enabled = true;
+			next = 1420070400000L + i * 60000L;
+			interval = 4 * 60 * 60;
+			dayTone = TONE;
+			dayLED = dayWait = nightWait = true;
+			nightStop = 8 * 60 * 60;
+			nags = "5+";
+		}
+	}
+
+	/** @return a new database holding {@code rows} timers, with ids 1 to {@code rows} */
+	static Connection open(int rows) throws SQLException
+	{
+		Connection c = DriverManager.getConnection("jdbc:sqlite::memory:");
+		Statement s = c.createStatement();
+		s.execute(CREATE);
+		for (String index : INDEXES) s.execute(index);
+		s.close();
+		c.setAutoCommit(false);
+		StringBuilder sql = new StringBuilder("insert into timers (");
+		for (int i = 0; i < COLUMNS.length; i++) sql.append(i == 0 ? "" : ", ").append(COLUMNS[i]);
+		sql.append(") values (");
+		for (int i = 0; i < COLUMNS.length; i++) sql.append(i == 0 ? "?" : ", ?");
+		PreparedStatement insert = c.prepareStatement(sql.append(")").toString());
+		for (int i = 0; i < rows; i++) {
+			Row r = new Row(i);
+			for (int col = 0; col < COLUMNS.length; col++) bindColumn(insert, col + 1, r, col);
+			insert.executeUpdate();
+		}
+		insert.close();
+		c.commit();
+		c.setAutoCommit(true);
+		return c;
+	}
+
+	/**
+	 * @param cols column numbers, as in {@link #COLUMNS}, to set in that order
+	 * @return an UPDATE of those columns, with the id bound last
+	 */
+	static PreparedStatement prepareUpdate(Connection c, int... cols) throws SQLException
+	{
+		StringBuilder sql = new StringBuilder("update timers set ");
+		for (int i = 0; i < cols.length; i++) {
+			sql.append(i == 0 ? "" : ", ").append(COLUMNS[cols[i]]).append(" = ?");
+		}
+		return c.prepareStatement(sql.append(" where _id = ?").toString());
+	}
+
+	/** Every column number, for a full UPDATE. */
+	static int[] allColumns()
+	{
+		int[] cols = new int[COLUMNS.length];
+		for (int i = 0; i < cols.length; i++) cols[i] = i;
+		return cols;
+	}
+
+	/** The same switch as {@code TimerDB.bindColumn}, with no boxing. */
+	static void bindColumn(PreparedStatement s, int index, Row v, int col) throws SQLException
+	{
+		switch (col) {
+		case 0: s.setString(index, v.name); break;
+		case 1: s.setLong(index, v.enabled ? 1 : 0); break;
+		case 2: s.setLong(index, v.next); break;
+		case 3: s.setLong(index, v.interval); break;
+		case 4: bindString(s, index, v.dayTone); break;
+		case 5: s.setLong(index, v.dayLED ? 1 : 0); break;
+		case 6: s.setLong(index, v.dayWait ? 1 : 0); break;
+		case 7: bindString(s, index, v.nightTone); break;
+		case 8: s.setLong(index, v.nightLED ? 1 : 0); break;
+		case 9: s.setLong(index, v.nightWait ? 1 : 0); break;
+		case 10: s.setLong(index, v.nightStart); break;
+		case 11: s.setLong(index, v.nightStop); break;
+		case 12: s.setLong(index, v.nightNext ? 1 : 0); break;
+		case 13: s.setLong(index, v.seen ? 1 : 0); break;
+		case 14: s.setLong(index, v.exact ? 1 : 0); break;
+		case 15: bindString(s, index, v.nags); break;
+		}
+	}
+
+	/**
+	 * The same reads as {@code TimerDB.cursorToEntry}, from a
+	 * {@code select *} row. The tones stay strings: {@code Uri.parse} needs
+	 * the Android runtime.
+	 */
+	static Row read(ResultSet c) throws SQLException
+	{
+		Row r = new Row();
+		r.id = c.getLong(1);
+		r.name = c.getString(2);
+		r.enabled = c.getInt(3) > 0;
+		r.next = c.getLong(4);
+		r.interval = c.getInt(5);
+		r.dayTone = c.getString(6);
+		r.dayLED = c.getInt(7) > 0;
+		r.dayWait = c.getInt(8) > 0;
+		r.nightTone = c.getString(9);
+		r.nightLED = c.getInt(10) > 0;
+		r.nightWait = c.getInt(11) > 0;
+		r.nightStart = c.getInt(12);
+		r.nightStop = c.getInt(13);
+		r.nightNext = c.getInt(14) > 0;
+		r.seen = c.getInt(15) > 0;
+		r.exact = c.getInt(16) > 0;
+		r.nags = c.getString(17);
+		r.nagPolicy = NagPolicy.parse(r.nags);
+		return r;
+	}
+
+	private static void bindString(PreparedStatement s, int index, String v) throws SQLException
+	{
+		if (v == null) s.setNull(index, Types.VARCHAR); else s.setString(index, v);
+	}
+}
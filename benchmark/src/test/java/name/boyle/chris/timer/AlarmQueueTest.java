@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AlarmQueueTest
+{
+	static final long MINUTE = 60 * 1000L, T0 = 1420070400000L;  // 2015-01-01 UTC
+
+	/** The wakeup each kind is set for, or -1, like {@code AlarmManager} would hold. */
+	static class Wakeups implements AlarmQueue.Wakeups
+	{
+		long inexact = -1, exact = -1;
+
+		public void set(long due, boolean exact, int timers)
+		{
+			if (exact) this.exact = due; else inexact = due;
+		}
+
+		public void cancel(boolean exact)
+		{
+			if (exact) this.exact = -1; else inexact = -1;
+		}
+	}
+
+	Wakeups wakeups;
+	AlarmQueue queue;
+
+	@Before
+	public void setUp()
+	{
+		wakeups = new Wakeups();
+		queue = new AlarmQueue(wakeups);
+	}
+
+	@Test
+	public void armsForEarliest()
+	{
+		queue.put(1, T0 + 10 * MINUTE, NagPolicy.DEFAULT, false, T0);
+		queue.put(2, T0 + 5 * MINUTE, NagPolicy.DEFAULT, false, T0);
+		queue.put(3, T0 + 7 * MINUTE, NagPolicy.DEFAULT, true, T0);
+		queue.arm();
+		assertEquals(T0 + 5 * MINUTE, wakeups.inexact);
+		assertEquals(T0 + 7 * MINUTE, wakeups.exact);
+		queue.remove(3);
+		queue.arm();
+		assertEquals(-1, wakeups.exact);
+	}
+
+	@Test
+	public void takesEverythingDueInOneWakeup()
+	{
+		queue.put(1, T0, NagPolicy.DEFAULT, false, T0);
+		queue.put(2, T0 + MINUTE, NagPolicy.DEFAULT, true, T0);
+		queue.put(3, T0 + 10 * MINUTE, NagPolicy.DEFAULT, false, T0);
+		queue.arm();
+		assertArrayEquals(new long[] { 1, 2 }, sorted(queue.takeDue(T0 + 2 * MINUTE)));
+		// Both are waiting for their first reminder now, 5 minutes after each was due
+		assertEquals(T0 + 5 * MINUTE, wakeups.inexact);
+		assertEquals(T0 + 6 * MINUTE, wakeups.exact);
+	}
+
+	/** After boot the notifications are gone, so everything overdue fires again. */
+	@Test
+	public void bootDeliversOverdue()
+	{
+		long now = T0 + 2 * MINUTE;  // delivered a little late, as inexact wakeups are
+		queue.load(1, T0, NagPolicy.DEFAULT, false);
+		queue.load(2, T0 + MINUTE, NagPolicy.parse("1,2,5,10,30"), false);
+		queue.load(3, T0, NagPolicy.parse(""), false);
+		queue.load(4, T0 + 60 * MINUTE, NagPolicy.DEFAULT, false);
+		queue.arm();
+		assertEquals(T0, wakeups.inexact);
+		assertArrayEquals(new long[] { 1, 2, 3 }, sorted(queue.takeDue(now)));
+		assertEquals(3, queue.size());  // timer 3 never reminds, so it's done
+		// Timer 2's first reminder was due as it was delivered, so the next is its second
+		assertEquals(T0 + 4 * MINUTE, wakeups.inexact);
+	}
+
+	/**
+	 * The wakeup starts a new process, whose queue is rebuilt from the
+	 * database: only the alarms the fire history doesn't have fire, and
+	 * the rest carry on with their reminders.
+	 */
+	@Test
+	public void coldProcessFiresOnlyWhatHistoryLacks()
+	{
+		long now = T0 + 2 * MINUTE;
+		queue.markDelivered(1, T0);
+		queue.put(1, T0, NagPolicy.DEFAULT, false, now);
+		queue.put(2, T0 + MINUTE, NagPolicy.parse("1,2,5,10,30"), false, now);
+		queue.markDelivered(3, T0);
+		queue.put(3, T0, NagPolicy.parse(""), false, now);
+		queue.put(4, T0 + 60 * MINUTE, NagPolicy.DEFAULT, false, now);
+		queue.arm();
+		assertEquals(3, queue.size());  // timer 3 has fired and never reminds
+		assertEquals(T0 + MINUTE, wakeups.inexact);
+		assertArrayEquals(new long[] { 2 }, queue.takeDue(now));
+		// Timer 2 goes on to its second reminder, before timer 1's first
+		assertEquals(T0 + 4 * MINUTE, wakeups.inexact);
+		assertArrayEquals(new long[] { 1, 2 }, sorted(queue.takeDue(T0 + 5 * MINUTE)));
+	}
+
+	/** An alarm time the history has for an earlier alarm of the same timer doesn't count. */
+	@Test
+	public void historyOfAnotherAlarmDoesNotSkip()
+	{
+		queue.markDelivered(1, T0);
+		queue.put(1, T0 + 10 * MINUTE, NagPolicy.parse(""), false, T0 + 20 * MINUTE);
+		queue.arm();
+		assertArrayEquals(new long[] { 1 }, queue.takeDue(T0 + 20 * MINUTE));
+	}
+
+	/** Delivered hours late, as Doze can: the alarm still fires once, and only the reminders are cut off. */
+	@Test
+	public void lateFirstFireIsNeverSkipped()
+	{
+		long now = T0 + 3 * 60 * MINUTE;
+		queue.put(1, T0, NagPolicy.parse("1,2,5,10,30"), false, now);
+		queue.put(2, T0, NagPolicy.parse(""), true, now);
+		queue.arm();
+		assertEquals(T0, wakeups.inexact);
+		assertEquals(T0, wakeups.exact);
+		assertArrayEquals(new long[] { 1, 2 }, sorted(queue.takeDue(now)));
+		assertEquals(0, queue.size());
+		// Putting them back, e.g. when a setting changes, doesn't fire them again
+		queue.put(1, T0, NagPolicy.parse("1,2,5,10,30"), false, now + MINUTE);
+		queue.put(2, T0, NagPolicy.parse(""), false, now + MINUTE);
+		assertEquals(0, queue.size());
+	}
+
+	/** A timer put back after firing carries on with its reminders rather than firing again. */
+	@Test
+	public void putBackAfterFiringResumesReminders()
+	{
+		queue.put(1, T0, NagPolicy.DEFAULT, false, T0);
+		queue.arm();
+		assertArrayEquals(new long[] { 1 }, queue.takeDue(T0));
+		queue.put(1, T0, NagPolicy.DEFAULT, true, T0 + 7 * MINUTE);  // switched to exact
+		queue.arm();
+		assertEquals(-1, wakeups.inexact);
+		assertEquals(T0 + 10 * MINUTE, wakeups.exact);
+		// A new alarm time hasn't fired, so it's due even though it's past
+		queue.put(1, T0 + 6 * MINUTE, NagPolicy.DEFAULT, true, T0 + 7 * MINUTE);
+		queue.arm();
+		assertEquals(T0 + 6 * MINUTE, wakeups.exact);
+	}
+
+	static long[] sorted(long[] ids)
+	{
+		Arrays.sort(ids);
+		return ids;
+	}
+}
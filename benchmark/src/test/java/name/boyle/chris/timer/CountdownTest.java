@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** {@link Countdown} against what the ticker and editor worked out before. */
+public class CountdownTest
+{
+	static final long MINUTE = 60 * 1000L, DAY = 24 * 60 * MINUTE;
+	static final long T0 = 1420070400000L;  // 2015-01-01 UTC
+
+	private TimeZone defaultZone;
+
+	@Before
+	public void setUp()
+	{
+		defaultZone = TimeZone.getDefault();
+	}
+
+	@After
+	public void tearDown()
+	{
+		TimeZone.setDefault(defaultZone);
+		NightWindow.zoneChanged();
+	}
+
+	@Test
+	public void secsUntilRoundsAndStopsAtZero()
+	{
+		assertEquals(10, Countdown.secsUntil(T0 + 10000, T0));
+		assertEquals(10, Countdown.secsUntil(T0 + 10499, T0));
+		assertEquals(11, Countdown.secsUntil(T0 + 10500, T0));
+		assertEquals(0, Countdown.secsUntil(T0 - 5000, T0));
+	}
+
+	@Test
+	public void tickDelayIsJustPastTheNextSecond()
+	{
+		assertEquals(253, Countdown.tickDelay(T0 + 10250, T0));
+		assertEquals(3, Countdown.tickDelay(T0 + 10000, T0));
+		assertEquals(500, Countdown.tickDelay(T0, T0));
+	}
+
+	@Test
+	public void splitsAsThePickerShows()
+	{
+		int secs = 26 * 3600 + 7 * 60 + 9;
+		assertEquals(26, Countdown.hours(secs));
+		assertEquals(7, Countdown.minutes(secs));
+		assertEquals(9, Countdown.seconds(secs));
+		assertEquals(99, Countdown.hours(200 * 3600));
+	}
+
+	@Test
+	public void nextTimeIsLocalHoursAndMinutes()
+	{
+		String[] zones = { "UTC", "Europe/London", "America/New_York", "Asia/Kolkata", "Australia/Lord_Howe" };
+		for (String id : zones) {
+			TimeZone.setDefault(TimeZone.getTimeZone(id));
+			NightWindow.zoneChanged();
+			SimpleDateFormat format = new SimpleDateFormat("HH:mm");
+			Countdown.NextTime t = new Countdown.NextTime();
+			// Every 7 minutes for a year, so that clock changes are crossed
+			for (long ms = T0; ms < T0 + 365 * DAY; ms += 7 * MINUTE) {
+				assertTrue(t.set(ms));
+				assertEquals(id + " " + ms, format.format(new Date(ms)), t.text());
+			}
+		}
+	}
+
+	@Test
+	public void nextTimeChangesOnlyWithTheMinuteOrZone()
+	{
+		TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+		NightWindow.zoneChanged();
+		Countdown.NextTime t = new Countdown.NextTime();
+		assertTrue(t.set(T0 + 1000));
+		assertEquals("00:00", t.text());
+		assertFalse(t.set(T0 + 59000));
+		assertTrue(t.set(T0 + MINUTE));
+		assertEquals("00:01", t.text());
+		TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+		NightWindow.zoneChanged();
+		assertTrue(t.set(T0 + MINUTE));
+		assertEquals("05:31", t.text());
+		assertTrue(t.set(-1));
+		assertNull(t.text());
+		assertFalse(t.set(-1));
+	}
+}
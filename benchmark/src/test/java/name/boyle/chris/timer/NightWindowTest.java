@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link NightWindow} against the calculation it replaced, kept as
+ * {@link OccurrenceBaseline}.
+ * <p>
+ * They differ only within a couple of days of a clock change. The old code
+ * found yesterday's and tomorrow's boundaries by stepping a day from one it
+ * had already resolved, so near a clock change they could come out an hour
+ * off, in either direction. NightWindow resolves each boundary on its own
+ * date, as {@link Calendar} does when the fields are set: a time of day the
+ * clocks skip over is taken at the old offset, so it lands after the jump
+ * by the same amount (01:30 on a spring-forward day in London is 02:30 BST),
+ * and a time of day that happens twice is the later, standard-time one.
+ */
+public class NightWindowTest
+{
+	static final long HOUR = 60 * 60 * 1000L, DAY = 24 * HOUR;
+	static final String[] ZONES = { "UTC", "Europe/London", "America/New_York", "Australia/Sydney",
+			"Australia/Lord_Howe", "America/Sao_Paulo", "Asia/Kolkata" };
+
+	private TimeZone defaultZone;
+
+	@Before
+	public void setUp()
+	{
+		defaultZone = TimeZone.getDefault();
+	}
+
+	@After
+	public void tearDown()
+	{
+		TimeZone.setDefault(defaultZone);
+		NightWindow.zoneChanged();
+	}
+
+	private static void useZone(String id)
+	{
+		TimeZone.setDefault(TimeZone.getTimeZone(id));
+		NightWindow.zoneChanged();
+	}
+
+	@Test
+	public void matchesOldCalculationAwayFromClockChanges()
+	{
+		long from = utc(2015, Calendar.JANUARY, 1, 0, 0);
+		for (String zone : ZONES) {
+			useZone(zone);
+			TimeZone tz = TimeZone.getDefault();
+			Random random = new Random(zone.hashCode());
+			NightWindow window = new NightWindow();
+			int compared = 0;
+			for (int i = 0; i < 100000; i++) {
+				int start = random.nextInt(24 * 3600), stop = random.nextInt(24 * 3600);
+				long now = from + (long)(random.nextDouble() * 3 * 365 * DAY);
+				long next = now + HOUR - (long)(random.nextDouble() * 2 * DAY);
+				// The boundaries looked at span from two days before now to a day after
+				if (tz.getOffset(now - 3 * DAY) != tz.getOffset(now + 2 * DAY)) continue;
+				compared++;
+				assertEquals(zone + " start " + start + " stop " + stop + " next " + next + " now " + now,
+						OccurrenceBaseline.isNight(start, stop, next, now),
+						window.isNight(start, stop, next, now));
+			}
+			assertTrue(zone + " compared only " + compared, compared > 95000);
+		}
+	}
+
+	/** London, 27 March 2016: 01:00 GMT becomes 02:00 BST, so 01:30 is 02:30 BST. */
+	@Test
+	public void skippedTimeLandsAfterTheJump()
+	{
+		useZone("Europe/London");
+		int start = 23 * 3600, stop = 90 * 60;
+		assertTrue(new NightWindow().isNight(start, stop,
+				utc(2016, Calendar.MARCH, 27, 1, 20), utc(2016, Calendar.MARCH, 27, 1, 25)));
+		assertFalse(new NightWindow().isNight(start, stop,
+				utc(2016, Calendar.MARCH, 27, 1, 40), utc(2016, Calendar.MARCH, 27, 1, 45)));
+	}
+
+	/** London, 25 October 2015: 01:00 happens at 00:00 UTC (BST) and again at 01:00 UTC (GMT). */
+	@Test
+	public void repeatedTimeIsTheLaterOne()
+	{
+		useZone("Europe/London");
+		int start = 23 * 3600 + 30 * 60, stop = 3600;
+		assertTrue(new NightWindow().isNight(start, stop,
+				utc(2015, Calendar.OCTOBER, 25, 0, 30), utc(2015, Calendar.OCTOBER, 25, 0, 35)));
+		assertFalse(new NightWindow().isNight(start, stop,
+				utc(2015, Calendar.OCTOBER, 25, 1, 5), utc(2015, Calendar.OCTOBER, 25, 1, 10)));
+	}
+
+	/** The day before a clock change keeps its own boundaries; the old code moved them an hour. */
+	@Test
+	public void dayBeforeClockChangeIsUnaffected()
+	{
+		useZone("Europe/London");
+		int start = 3600, stop = 90 * 60;  // 01:00 to 01:30, which 27 March 2016 skips
+		long next = utc(2016, Calendar.MARCH, 26, 3, 39), now = utc(2016, Calendar.MARCH, 27, 0, 32);
+		assertFalse(new NightWindow().isNight(start, stop, next, now));
+		assertTrue(OccurrenceBaseline.isNight(start, stop, next, now));
+	}
+
+	@Test
+	public void followsZoneChanges()
+	{
+		useZone("UTC");
+		NightWindow window = new NightWindow();
+		long next = utc(2015, Calendar.JUNE, 1, 20, 0), now = next + 60000;
+		assertFalse(window.isNight(23 * 3600, 7 * 3600, next, now));
+		useZone("Asia/Kolkata");  // 01:30 the next morning there
+		assertTrue(window.isNight(23 * 3600, 7 * 3600, next, now));
+	}
+
+	static long utc(int year, int month, int day, int hour, int minute)
+	{
+		Calendar c = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		c.clear();
+		c.set(year, month, day, hour, minute);
+		return c.getTimeInMillis();
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** {@link PickerValue} linked as {@link HMSPicker} links its pickers. */
+public class PickerValueTest
+{
+	private PickerValue hours, mins, secs;
+	private final StringBuilder changes = new StringBuilder();
+
+	@Before
+	public void setUp()
+	{
+		PickerValue.Listener log = new PickerValue.Listener() {
+			public void onChanged(PickerValue value, int oldVal, int newVal)
+			{
+				changes.append(value == hours ? 'h' : value == mins ? 'm' : 's')
+						.append(oldVal).append('>').append(newVal).append(' ');
+			}
+		};
+		hours = new PickerValue();
+		mins = new PickerValue();
+		secs = new PickerValue();
+		hours.setRange(0, 99);
+		mins.setRange(0, 59);
+		secs.setRange(0, 59);
+		hours.setSmaller(mins);
+		mins.setSmaller(secs);
+		hours.setListener(log);
+		mins.setListener(log);
+		secs.setListener(log);
+	}
+
+	private void set(int h, int m, int s)
+	{
+		hours.setCurrent(h);
+		mins.setCurrent(m);
+		secs.setCurrent(s);
+	}
+
+	private String value()
+	{
+		return hours.getCurrent() + ":" + mins.getCurrent() + ":" + secs.getCurrent();
+	}
+
+	@Test
+	public void stepsWithoutCarry()
+	{
+		set(1, 2, 3);
+		secs.increment();
+		assertEquals("1:2:4", value());
+		secs.decrement();
+		assertEquals("1:2:3", value());
+		assertEquals("s3>4 s4>3 ", changes.toString());
+	}
+
+	@Test
+	public void carriesLargestFirst()
+	{
+		set(0, 59, 59);
+		secs.increment();
+		assertEquals("1:0:0", value());
+		assertEquals("h0>1 m59>0 s59>0 ", changes.toString());
+	}
+
+	@Test
+	public void borrowsLargestFirst()
+	{
+		set(1, 0, 0);
+		secs.decrement();
+		assertEquals("0:59:59", value());
+		assertEquals("h1>0 m0>59 s0>59 ", changes.toString());
+	}
+
+	@Test
+	public void largestGoesToItsEndsAndTakesSmallerWith()
+	{
+		set(0, 0, 0);
+		secs.decrement();
+		assertEquals("0:0:0", value());
+		set(99, 10, 20);
+		hours.increment();
+		assertEquals("99:59:59", value());
+		assertEquals("m10>59 s20>59 ", changes.toString());
+	}
+
+	@Test
+	public void fillsSmallerWhenNothingToCarryInto()
+	{
+		set(99, 59, 30);
+		mins.increment();
+		assertEquals("99:59:59", value());
+		assertEquals("s30>59 ", changes.toString());
+		set(0, 0, 30);
+		changes.setLength(0);
+		mins.decrement();
+		assertEquals("0:0:0", value());
+		assertEquals("s30>0 ", changes.toString());
+	}
+
+	@Test
+	public void stepWraps()
+	{
+		PickerValue v = new PickerValue();
+		v.setRange(0, 59);
+		v.setStep(5);
+		v.setCurrent(55);
+		v.increment();
+		assertEquals(0, v.getCurrent());
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The part of {@code TimerActivity.ticker} that doesn't need views must not
+ * allocate once it is running: each tick reads the clock, asks the timer's
+ * {@link Horizon} for the next two fires, and has {@link Countdown} work out
+ * the picker's hours, minutes and seconds, the "HH:MM" labels and the delay
+ * to the next tick. A stopped timer's next time moves with the clock, so
+ * its label changes every minute. Allocation is counted per thread by the
+ * JVM.
+ */
+public class TickAllocationTest
+{
+	static final long SECOND = 1000L, HOUR = 60 * 60 * SECOND;
+	static final long T0 = 1420070400000L;  // 2015-01-01 UTC
+	static final int TICKS = 100000;
+
+	/** Moved on by hand, a second per tick. */
+	static class TestClock extends Clock
+	{
+		long now = T0;
+
+		@Override
+		public long now() { return now; }
+	}
+
+	private TestClock clock;
+	private Horizon horizon;
+	private NightWindow window;
+	private Countdown.NextTime nextTime, nextTime2, stoppedTime;
+	private long next;
+	private long sink;
+
+	@Before
+	public void setUp()
+	{
+		clock = new TestClock();
+		Clock.set(clock);
+		horizon = new Horizon();
+		window = new NightWindow();
+		nextTime = new Countdown.NextTime();
+		nextTime2 = new Countdown.NextTime();
+		stoppedTime = new Countdown.NextTime();
+		next = T0 + TICKS * 3 * SECOND;  // doesn't fire during the test
+	}
+
+	@After
+	public void tearDown()
+	{
+		Clock.set(Clock.SYSTEM);
+	}
+
+	/**
+	 * One tick, as the ticker does it for an enabled timer, with the views'
+	 * setters left out; a label's text is only read when it changes, as
+	 * {@code Editor.showNextTimes} does.
+	 */
+	private void tick()
+	{
+		long now = Clock.get().now();
+		Horizon h = horizon.sync(true, next, 4 * 60 * 60, 23 * 3600, 7 * 3600, false, true, true);
+		long ms = h.fireAt(0), ms2 = h.fireAt(1);
+		boolean night = window.isNight(23 * 3600, 7 * 3600, next, now);
+		int secs = Countdown.secsUntil(next, now);
+		sink += Countdown.hours(secs) + Countdown.minutes(secs) + Countdown.seconds(secs);
+		if (nextTime.set(ms)) sink += nextTime.text().length();
+		if (nextTime2.set(ms2)) sink += nextTime2.text().length();
+		if (stoppedTime.set(now + 90 * SECOND)) sink += stoppedTime.text().length();
+		sink += (night ? 1 : 0) + Countdown.tickDelay(next, now);
+		clock.now += SECOND;
+	}
+
+	@Test
+	public void steadyStateTickDoesNotAllocate()
+	{
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		assertTrue("allocation counting unsupported", threads.isThreadAllocatedMemorySupported());
+		threads.setThreadAllocatedMemoryEnabled(true);
+		// Warm up, work out the fires once, and show every minute of the day
+		for (int i = 0; i < TICKS; i++) tick();
+		// What reading the counter costs by itself
+		long overhead = Long.MAX_VALUE;
+		for (int i = 0; i < 10; i++) {
+			long before = threads.getThreadAllocatedBytes(thread);
+			overhead = Math.min(overhead, threads.getThreadAllocatedBytes(thread) - before);
+		}
+		long before = threads.getThreadAllocatedBytes(thread);
+		for (int i = 0; i < TICKS; i++) tick();
+		long allocated = threads.getThreadAllocatedBytes(thread) - before - overhead;
+		assertEquals("bytes allocated over " + TICKS + " ticks", 0, allocated);
+		assertTrue(sink != 0);
+	}
+}
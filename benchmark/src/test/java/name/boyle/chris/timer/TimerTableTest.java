@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 Chris Boyle
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package name.boyle.chris.timer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link TimerTable} is a JDBC copy of what {@link TimerDB} creates and
+ * binds, which needs the Android runtime and so can't be loaded here. This
+ * works out TimerDB's constants from its source instead, so that the
+ * benchmarks can't drift away from the real schema unnoticed.
+ */
+public class TimerTableTest
+{
+	private static final Pattern STRING_CONSTANT = Pattern.compile(
+			"static final String\\s+(\\w+)\\s*=\\s*(.*?);", Pattern.DOTALL);
+	private static final Pattern TOKEN = Pattern.compile("\"((?:[^\"\\\\]|\\\\.)*)\"|(\\w+)");
+
+	private String source;
+	private final HashMap<String, String> constants = new HashMap<String, String>();
+
+	@Before
+	public void setUp() throws IOException
+	{
+		String dir = System.getProperty("appSources");
+		assertNotNull("appSources not set", dir);
+		File f = new File(dir, "name/boyle/chris/timer/TimerDB.java");
+		source = new String(Files.readAllBytes(f.toPath()), Charset.forName("UTF-8"));
+		Matcher m = STRING_CONSTANT.matcher(source);
+		while (m.find()) constants.put(m.group(1), m.group(2));
+	}
+
+	/** @return the value of a constant made by joining literals and other constants with + */
+	private String evaluate(String name)
+	{
+		String expr = constants.get(name);
+		assertNotNull("TimerDB has no String constant " + name, expr);
+		StringBuilder b = new StringBuilder();
+		Matcher m = TOKEN.matcher(expr);
+		while (m.find()) {
+			if (m.group(2) == null) b.append(m.group(1)); else b.append(evaluate(m.group(2)));
+		}
+		return b.toString();
+	}
+
+	@Test
+	public void columnsMatch()
+	{
+		Matcher m = Pattern.compile("String\\[\\] KEYS_EXCEPT_ID = \\{(.*?)\\};", Pattern.DOTALL).matcher(source);
+		assertEquals("TimerDB.KEYS_EXCEPT_ID", true, m.find());
+		ArrayList<String> keys = new ArrayList<String>();
+		for (String key : m.group(1).split(",")) keys.add(evaluate(key.trim()));
+		assertArrayEquals(keys.toArray(), TimerTable.COLUMNS);
+	}
+
+	@Test
+	public void createSqlMatches()
+	{
+		assertEquals(evaluate("DB_CREATE"), TimerTable.CREATE);
+		assertArrayEquals(new String[] { evaluate("DB_CREATE_DUE_INDEX"), evaluate("DB_CREATE_NAME_INDEX") },
+				TimerTable.INDEXES);
+	}
+
+	/** Like TimerDB.bindColumn, every column binds exactly one value, at the index given. */
+	@Test
+	public void everyColumnIsBound() throws SQLException
+	{
+		final int[] bound = new int[1];
+		final int[] index = new int[1];
+		PreparedStatement s = (PreparedStatement)Proxy.newProxyInstance(getClass().getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						if (method.getName().startsWith("set")) {
+							bound[0]++;
+							index[0] = (Integer)args[0];
+						}
+						return null;
+					}
+				});
+		TimerTable.Row row = new TimerTable.Row(0);
+		for (int col = 0; col < TimerTable.COLUMNS.length; col++) {
+			bound[0] = 0;
+			TimerTable.bindColumn(s, col + 7, row, col);
+			assertEquals(TimerTable.COLUMNS[col], 1, bound[0]);
+			assertEquals(TimerTable.COLUMNS[col], col + 7, index[0]);
+		}
+	}
+}